@@ -0,0 +1,223 @@
+package org.yamcs.protoc;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse.File;
+
+/**
+ * On-disk cache of generated files, keyed by a hash of the {@link FileDescriptorProto} that they were generated from.
+ * <p>
+ * The key also covers the transitive dependencies of that file (these determine how message types resolve to Java
+ * classes), the generator classes and the plugin parameter. Entries are touched when used, and the least recently
+ * used entries are removed once the cache grows beyond {@link #MAX_SIZE}.
+ */
+public class GenerationCache {
+
+    /**
+     * Total size in bytes of the entries that are kept after a run that added entries.
+     */
+    public static final long MAX_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * Age after which temporary files are assumed to be left behind by a crashed run.
+     */
+    private static final long TMP_FILE_TTL_MILLIS = 3600_000;
+
+    private static String generatorHash;
+
+    private Path dir;
+    private String salt;
+    private volatile boolean modified;
+
+    public GenerationCache(Path dir, String generatorHash, String parameter) throws IOException {
+        this.dir = dir;
+        this.salt = generatorHash + "\n" + parameter;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * Returns a hash of the classes of this generator, that is of its jar file or class directory. Unlike the
+     * version, this changes whenever the generator is rebuilt.
+     */
+    public static synchronized String getGeneratorHash() throws IOException {
+        if (generatorHash == null) {
+            var digest = newDigest();
+            var codeSource = ServiceGenerator.class.getProtectionDomain().getCodeSource();
+            if (codeSource == null) {
+                digest.update(ServiceGenerator.getVersion().getBytes(StandardCharsets.UTF_8));
+            } else {
+                Path location;
+                try {
+                    location = Path.of(codeSource.getLocation().toURI());
+                } catch (URISyntaxException e) {
+                    throw new IOException(e);
+                }
+                if (Files.isDirectory(location)) {
+                    List<Path> files;
+                    try (var stream = Files.walk(location)) {
+                        files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                    }
+                    for (var file : files) {
+                        digest.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                        digest.update(Files.readAllBytes(file));
+                    }
+                } else {
+                    digest.update(Files.readAllBytes(location));
+                }
+            }
+            generatorHash = toHex(digest.digest());
+        }
+        return generatorHash;
+    }
+
+    public String computeKey(FileDescriptorProto file, Map<String, FileDescriptorProto> filesByName) {
+        var digest = newDigest();
+        digest.update(salt.getBytes(StandardCharsets.UTF_8));
+        digest.update(file.toByteArray());
+
+        var visited = new HashSet<String>();
+        for (var dependency : file.getDependencyList()) {
+            updateDependency(digest, dependency, filesByName, visited);
+        }
+
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        var buf = new StringBuilder(hash.length * 2);
+        for (var b : hash) {
+            buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+            buf.append(Character.forDigit(b & 0xF, 16));
+        }
+        return buf.toString();
+    }
+
+    private static void updateDependency(MessageDigest digest, String name,
+            Map<String, FileDescriptorProto> filesByName, Set<String> visited) {
+        if (!visited.add(name)) {
+            return;
+        }
+        var file = filesByName.get(name);
+        if (file != null) {
+            digest.update(file.toByteArray());
+            for (var dependency : file.getDependencyList()) {
+                updateDependency(digest, dependency, filesByName, visited);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached files for the given key, or null if there is no usable entry.
+     */
+    public List<File> get(String key) {
+        var path = dir.resolve(key + ".pb");
+        if (!Files.exists(path)) {
+            return null;
+        }
+        List<File> files;
+        try {
+            files = CodeGeneratorResponse.parseFrom(Files.readAllBytes(path)).getFileList();
+        } catch (IOException e) {
+            return null; // Unreadable or corrupt entry, regenerate
+        }
+        try {
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            // Only affects the order of eviction
+        }
+        return files;
+    }
+
+    public void put(String key, List<File> files) throws IOException {
+        var entry = CodeGeneratorResponse.newBuilder().addAllFile(files).build();
+
+        // Write to a temporary file first, so that concurrent builds never see a partial entry
+        var tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            Files.write(tmp, entry.toByteArray());
+            Files.move(tmp, dir.resolve(key + ".pb"), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            modified = true;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Removes the least recently used entries beyond the given total size, if entries were added since this cache was
+     * created. Temporary files of crashed runs are removed as well. Files that another run removes concurrently are
+     * skipped.
+     */
+    public void evict(long maxSize) throws IOException {
+        if (!modified) {
+            return;
+        }
+        List<Path> files;
+        try (var stream = Files.list(dir)) {
+            files = stream.collect(Collectors.toList());
+        }
+        var entries = new ArrayList<Path>();
+        var tmpExpiry = System.currentTimeMillis() - TMP_FILE_TTL_MILLIS;
+        for (var path : files) {
+            var name = path.getFileName().toString();
+            if (name.endsWith(".pb")) {
+                entries.add(path);
+            } else if (name.endsWith(".tmp") && getLastModifiedMillis(path) < tmpExpiry) {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        var lastModified = new HashMap<Path, Long>();
+        for (var path : entries) {
+            lastModified.put(path, getLastModifiedMillis(path));
+        }
+        entries.sort(Comparator.comparing(lastModified::get, Comparator.reverseOrder()));
+
+        long size = 0;
+        for (var path : entries) {
+            try {
+                size += Files.size(path);
+            } catch (IOException e) {
+                continue; // Removed concurrently
+            }
+            if (size > maxSize) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static long getLastModifiedMillis(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE; // Removed concurrently, skip
+        }
+    }
+}
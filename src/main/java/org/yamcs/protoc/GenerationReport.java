@@ -0,0 +1,144 @@
+package org.yamcs.protoc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse.File;
+
+/**
+ * Collects timings and size metrics of a generation run, for output as an additional JSON or CSV file in the
+ * response.
+ * <p>
+ * Service metrics and cache hits may be added concurrently.
+ */
+public class GenerationReport {
+
+    private String format;
+
+    private long parseTime;
+    private long indexTime;
+    private long commentScanTime;
+    private long generateTime;
+    private long writeTime;
+    private AtomicInteger cachedFiles = new AtomicInteger();
+
+    private ConcurrentLinkedQueue<ServiceMetrics> services = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param format
+     *            either "json" or "csv"
+     */
+    public GenerationReport(String format) {
+        if (!format.equals("json") && !format.equals("csv")) {
+            throw new IllegalArgumentException("Unsupported report format '" + format + "'");
+        }
+        this.format = format;
+    }
+
+    public void setParseTime(long nanos) {
+        parseTime = nanos;
+    }
+
+    /**
+     * Sets the time spent building the index. This includes comment scanning, which is reported separately.
+     */
+    public void setIndexTime(long nanos, long commentScanNanos) {
+        indexTime = nanos - commentScanNanos;
+        commentScanTime = commentScanNanos;
+    }
+
+    public void setGenerateTime(long nanos) {
+        generateTime = nanos;
+    }
+
+    public void addWriteTime(long nanos) {
+        writeTime += nanos;
+    }
+
+    public long getWriteTime() {
+        return writeTime;
+    }
+
+    public void incrementCachedFiles() {
+        cachedFiles.incrementAndGet();
+    }
+
+    public void addService(String name, int methodCount, long generatedBytes, int largestDispatchMethod,
+            long nanos) {
+        services.add(new ServiceMetrics(name, methodCount, generatedBytes, largestDispatchMethod, nanos));
+    }
+
+    public File toFile() {
+        // Services are generated in parallel, sort them for stable output
+        var sortedServices = new ArrayList<>(services);
+        sortedServices.sort(Comparator.comparing(s -> s.name));
+
+        var buf = new StringBuilder();
+        if (format.equals("json")) {
+            buf.append("{\n");
+            buf.append("  \"phases\": {\n");
+            buf.append("    \"parse\": ").append(millis(parseTime)).append(",\n");
+            buf.append("    \"index\": ").append(millis(indexTime)).append(",\n");
+            buf.append("    \"commentScan\": ").append(millis(commentScanTime)).append(",\n");
+            buf.append("    \"generate\": ").append(millis(generateTime)).append(",\n");
+            buf.append("    \"write\": ").append(millis(writeTime)).append("\n");
+            buf.append("  },\n");
+            buf.append("  \"cachedFiles\": ").append(cachedFiles).append(",\n");
+            buf.append("  \"services\": [");
+            for (int i = 0; i < sortedServices.size(); i++) {
+                var service = sortedServices.get(i);
+                buf.append(i == 0 ? "\n" : ",\n");
+                buf.append("    {\"name\": \"").append(service.name).append("\"");
+                buf.append(", \"methods\": ").append(service.methodCount);
+                buf.append(", \"generatedBytes\": ").append(service.generatedBytes);
+                buf.append(", \"largestDispatchMethod\": ").append(service.largestDispatchMethod);
+                buf.append(", \"time\": ").append(millis(service.time)).append("}");
+            }
+            buf.append(sortedServices.isEmpty() ? "]\n" : "\n  ]\n");
+            buf.append("}\n");
+        } else {
+            buf.append("kind,name,methods,generated_bytes,largest_dispatch_method,time_ms\n");
+            buf.append("phase,parse,,,,").append(millis(parseTime)).append("\n");
+            buf.append("phase,index,,,,").append(millis(indexTime)).append("\n");
+            buf.append("phase,comment_scan,,,,").append(millis(commentScanTime)).append("\n");
+            buf.append("phase,generate,,,,").append(millis(generateTime)).append("\n");
+            buf.append("phase,write,,,,").append(millis(writeTime)).append("\n");
+            for (var service : sortedServices) {
+                buf.append("service,").append(service.name);
+                buf.append(",").append(service.methodCount);
+                buf.append(",").append(service.generatedBytes);
+                buf.append(",").append(service.largestDispatchMethod);
+                buf.append(",").append(millis(service.time)).append("\n");
+            }
+        }
+
+        return File.newBuilder()
+                .setName("yamcs-protoc-report." + format)
+                .setContent(buf.toString())
+                .build();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static class ServiceMetrics {
+
+        private String name;
+        private int methodCount;
+        private long generatedBytes;
+        private int largestDispatchMethod;
+        private long time;
+
+        ServiceMetrics(String name, int methodCount, long generatedBytes, int largestDispatchMethod, long time) {
+            this.name = name;
+            this.methodCount = methodCount;
+            this.generatedBytes = generatedBytes;
+            this.largestDispatchMethod = largestDispatchMethod;
+            this.time = time;
+        }
+    }
+}
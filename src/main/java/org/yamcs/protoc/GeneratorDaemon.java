@@ -0,0 +1,338 @@
+package org.yamcs.protoc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Long-lived generator process, so that repeated protoc invocations do not each pay for JVM startup and a cold JIT.
+ * <p>
+ * The plugin forwards to a daemon when the {@value #DIR_VARIABLE} environment variable points to a state directory.
+ * The serialized request is then sent over a loopback socket, and the response is relayed to protoc. If no daemon is
+ * running, one is started in the background for later invocations, and the current request is generated in-process.
+ * The daemon exits after it has been idle for {@value #DEFAULT_IDLE_TIMEOUT} seconds, or for the number of seconds in
+ * {@value #IDLE_TIMEOUT_VARIABLE}.
+ * <p>
+ * Relative paths in plugin parameters, such as {@code cache_dir}, are resolved against the working directory. So each
+ * working directory gets its own daemon, with a subdirectory of the state directory.
+ * <p>
+ * Clients only use a daemon that runs the same plugin build, as identified by the size and modification time of the
+ * class path entries. A daemon exits once its class path changes, so that the next client starts one for the new
+ * build.
+ * <p>
+ * Only a client that can read the state directory knows the secret that the daemon expects on each connection.
+ */
+public class GeneratorDaemon {
+
+    static final String DIR_VARIABLE = "YAMCS_PROTOC_DAEMON";
+    static final String IDLE_TIMEOUT_VARIABLE = "YAMCS_PROTOC_DAEMON_IDLE_TIMEOUT";
+    static final int DEFAULT_IDLE_TIMEOUT = 300;
+
+    private static final String PORT_FILE = "daemon.port";
+    private static final String LOCK_FILE = "daemon.lock";
+    private static final int SECRET_LENGTH = 32;
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final int READ_TIMEOUT = 60000;
+    private static final int ACCEPT_TIMEOUT = 1000;
+
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_ERROR = 1;
+
+    private final Path dir;
+    private final long idleTimeoutMillis;
+    private final byte[] secret;
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile long lastActivity;
+    private String fingerprint;
+
+    /**
+     * Creates a daemon for the working directory of this process, with its state in a subdirectory of the given
+     * directory.
+     */
+    public GeneratorDaemon(Path dir, int idleTimeout) {
+        this.dir = getStateDir(dir);
+        this.idleTimeoutMillis = idleTimeout * 1000L;
+        secret = new byte[SECRET_LENGTH];
+        new SecureRandom().nextBytes(secret);
+    }
+
+    /**
+     * Runs a daemon in the foreground. Arguments: the state directory, and optionally the idle timeout in seconds.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: GeneratorDaemon <dir> [idle-timeout-seconds]");
+            System.exit(1);
+        }
+        var idleTimeout = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_IDLE_TIMEOUT;
+        new GeneratorDaemon(Path.of(args[0]), idleTimeout).run();
+    }
+
+    /**
+     * Accepts connections until idle. Returns immediately if another daemon already uses the same directory.
+     */
+    public void run() throws IOException {
+        Files.createDirectories(dir);
+        try (var lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+                var lock = lockChannel.tryLock()) {
+            if (lock == null) {
+                return; // Another daemon is running
+            }
+
+            var executor = Executors.newCachedThreadPool(r -> {
+                var thread = new Thread(r, "protoc-daemon");
+                thread.setDaemon(true);
+                return thread;
+            });
+            fingerprint = getFingerprint();
+            try (var serverSocket = new ServerSocket()) {
+                serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+                writePortFile(serverSocket.getLocalPort());
+                try {
+                    acceptLoop(serverSocket, executor);
+                } finally {
+                    Files.deleteIfExists(dir.resolve(PORT_FILE));
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private void acceptLoop(ServerSocket serverSocket, ExecutorService executor) throws IOException {
+        lastActivity = System.currentTimeMillis();
+        while (true) {
+            try {
+                var socket = serverSocket.accept();
+                activeRequests.incrementAndGet();
+                executor.execute(() -> handle(socket));
+            } catch (SocketTimeoutException e) {
+                if (activeRequests.get() == 0 && System.currentTimeMillis() - lastActivity >= idleTimeoutMillis) {
+                    return;
+                }
+                if (activeRequests.get() == 0 && !getFingerprint().equals(fingerprint)) {
+                    return; // Plugin rebuilt, make way for a daemon that runs the new build
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            socket.setSoTimeout(READ_TIMEOUT);
+            var in = new DataInputStream(socket.getInputStream());
+            var clientSecret = new byte[SECRET_LENGTH];
+            in.readFully(clientSecret);
+            if (!MessageDigest.isEqual(secret, clientSecret)) {
+                return;
+            }
+            var request = new byte[in.readInt()];
+            in.readFully(request);
+
+            byte status;
+            byte[] response;
+            try {
+                var bytes = new ByteArrayOutputStream();
+                ServiceGenerator.generate(new ByteArrayInputStream(request), bytes);
+                status = STATUS_OK;
+                response = bytes.toByteArray();
+            } catch (RuntimeException | IOException e) {
+                // The client regenerates in-process, to report the error as usual
+                status = STATUS_ERROR;
+                response = String.valueOf(e).getBytes(StandardCharsets.UTF_8);
+            }
+
+            var out = new DataOutputStream(socket.getOutputStream());
+            out.writeByte(status);
+            out.writeInt(response.length);
+            out.write(response);
+            out.flush();
+        } catch (IOException e) {
+            // Client went away, nothing to report to
+        } finally {
+            lastActivity = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    private void writePortFile(int port) throws IOException {
+        var buf = new StringBuilder();
+        buf.append(port).append("\n");
+        buf.append(toHex(secret)).append("\n");
+        buf.append(fingerprint).append("\n");
+
+        // Write to a temporary file first, so that clients never see a partial port file
+        var tmp = Files.createTempFile(dir, PORT_FILE, ".tmp");
+        try {
+            Files.writeString(tmp, buf);
+            Files.move(tmp, dir.resolve(PORT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Returns the state directory of the daemon for the working directory of this process.
+     */
+    private static Path getStateDir(Path dir) {
+        var workingDir = Path.of("").toAbsolutePath().toString();
+        var digest = newDigest().digest(workingDir.getBytes(StandardCharsets.UTF_8));
+        return dir.resolve(toHex(Arrays.copyOf(digest, 8)));
+    }
+
+    /**
+     * Identifies the plugin build, so that a client does not use a daemon that runs different code.
+     */
+    private static String getFingerprint() {
+        return getFingerprint(System.getProperty("java.class.path"));
+    }
+
+    /**
+     * Returns the version and a hash of the given class path, with the size and modification time of each entry, and
+     * of the files in directory entries. So a jar or class that is rebuilt in place changes the fingerprint.
+     */
+    static String getFingerprint(String classPath) {
+        var digest = newDigest();
+        digest.update(classPath.getBytes(StandardCharsets.UTF_8));
+        for (var entry : classPath.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                updateFingerprint(digest, Path.of(entry));
+            }
+        }
+        return ServiceGenerator.getVersion() + " " + toHex(digest.digest());
+    }
+
+    private static void updateFingerprint(MessageDigest digest, Path entry) {
+        try {
+            List<Path> files;
+            if (Files.isDirectory(entry)) {
+                try (var stream = Files.walk(entry)) {
+                    files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+            } else {
+                files = List.of(entry);
+            }
+            for (var file : files) {
+                var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                var line = file + " " + attributes.lastModifiedTime().toMillis() + " " + attributes.size() + "\n";
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // Missing or concurrently changed entry, which does not match any fingerprint of a complete build
+            digest.update(("? " + entry + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        var buf = new StringBuilder(bytes.length * 2);
+        for (var b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+            buf.append(Character.forDigit(b & 0xF, 16));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Sends a serialized request to a running daemon, and writes the response to the given output.
+     * <p>
+     * Returns false, without having written anything, if no usable daemon is running or if the daemon failed to
+     * generate the request. In that case a daemon is started for later requests, if none is running.
+     */
+    public static boolean forward(Path dir, byte[] request, OutputStream output) {
+        String[] lines;
+        try {
+            lines = Files.readString(getStateDir(dir).resolve(PORT_FILE)).split("\n");
+        } catch (IOException e) {
+            startDaemon(dir);
+            return false;
+        }
+        if (lines.length != 3 || !lines[2].equals(getFingerprint())) {
+            return false; // Stale or different plugin build
+        }
+
+        try (var socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(lines[0])),
+                    CONNECT_TIMEOUT);
+            var out = new DataOutputStream(socket.getOutputStream());
+            for (int i = 0; i < SECRET_LENGTH; i++) {
+                out.writeByte(Integer.parseInt(lines[1], 2 * i, 2 * i + 2, 16));
+            }
+            out.writeInt(request.length);
+            out.write(request);
+            out.flush();
+
+            var in = new DataInputStream(socket.getInputStream());
+            var status = in.readByte();
+            var response = new byte[in.readInt()];
+            in.readFully(response);
+            if (status != STATUS_OK) {
+                return false;
+            }
+            output.write(response);
+            output.flush();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Daemon exited without cleaning up, or the port file is corrupt
+            startDaemon(dir);
+            return false;
+        }
+    }
+
+    /**
+     * Starts a daemon in a detached process, with the same Java runtime, class path and working directory as this
+     * process.
+     */
+    private static void startDaemon(Path dir) {
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        var idleTimeout = System.getenv(IDLE_TIMEOUT_VARIABLE);
+        var processBuilder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                GeneratorDaemon.class.getName(), dir.toString(),
+                (idleTimeout != null) ? idleTimeout : String.valueOf(DEFAULT_IDLE_TIMEOUT));
+        processBuilder.redirectInput(ProcessBuilder.Redirect.PIPE);
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        processBuilder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            processBuilder.start().getOutputStream().close();
+        } catch (IOException e) {
+            // Not fatal, generation falls back to in-process
+            System.err.println("Could not start generator daemon: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.yamcs.protoc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plugin parameters, as passed by protoc with <code>--yamcs_opt</code> or as prefix of <code>--yamcs_out</code>.
+ * <p>
+ * The parameter string is a comma-separated list of <code>key</code> or <code>key=value</code> entries. A key may be
+ * repeated to specify multiple values.
+ */
+public class GeneratorOptions {
+
+    private Map<String, List<String>> values = new HashMap<>();
+
+    public GeneratorOptions(String parameter) {
+        for (var entry : parameter.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            var idx = entry.indexOf('=');
+            var key = (idx == -1) ? entry : entry.substring(0, idx).trim();
+            var value = (idx == -1) ? "" : entry.substring(idx + 1).trim();
+            values.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+    }
+
+    public boolean has(String key) {
+        return values.containsKey(key);
+    }
+
+    /**
+     * Returns the last value specified for the given key, or null if the key is not present.
+     */
+    public String get(String key) {
+        var list = values.get(key);
+        return (list == null) ? null : list.get(list.size() - 1);
+    }
+
+    public List<String> getAll(String key) {
+        var list = values.get(key);
+        return (list == null) ? Collections.emptyList() : Collections.unmodifiableList(list);
+    }
+}
@@ -0,0 +1,485 @@
+package org.yamcs.protoc;
+
+import java.beans.Introspector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Label;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+
+/**
+ * Generates a class with reflection-free JSON writers for the request and response messages of a service, and for
+ * the messages that these reach through their fields.
+ * <p>
+ * Output has the same structure as that of {@code JsonFormat.printer().omittingInsignificantWhitespace()}, but
+ * strings are escaped differently. Well-known types, and messages with fields that are not supported here, are
+ * written through {@code JsonFormat}.
+ * <p>
+ * Not thread-safe, use one instance per generated class.
+ */
+public class JsonWriterGenerator {
+
+    /**
+     * Camel-cased field names for which protobuf-java renames the accessors, to avoid clashes with inherited methods.
+     */
+    private static final Set<String> RENAMED_ACCESSORS = Set.of(
+            "Class", "CachedSize", "SerializedSize", "DefaultInstanceForType", "ParserForType", "DescriptorForType",
+            "UnknownFields", "AllFields", "InitializationErrorString");
+
+    private ProtoIndex index;
+    private String generatedAnnotation;
+
+    // Resolved message types by fully-qualified type name (with leading dot), in discovery order
+    private Map<String, MessageType> messageTypes = new LinkedHashMap<>();
+    private Set<String> writerNames = new HashSet<>();
+
+    public JsonWriterGenerator(ProtoIndex index, String generatedAnnotation) {
+        this.index = index;
+        this.generatedAnnotation = generatedAnnotation;
+    }
+
+    public SourceBuilder generate(FileDescriptorProto file, int serviceIndex) {
+        var service = file.getService(serviceIndex);
+        var javaPackage = index.getJavaPackage(file);
+        var javaName = service.getName() + "Json";
+
+        var jsource = new SourceBuilder(javaName);
+        jsource.setFinal(true);
+        jsource.setJavadoc("JSON writers for the messages of " + service.getName() + ". Output is compact, and\n"
+                + "otherwise has the same structure as that of JsonFormat.\n");
+        jsource.setPackage(javaPackage);
+        jsource.addAnnotation(generatedAnnotation);
+        jsource.addImport("java.io.IOException");
+        jsource.addImport("java.io.UncheckedIOException");
+        jsource.addImport("java.util.Base64");
+        jsource.addImport("com.google.protobuf.ByteString");
+        jsource.addImport("com.google.protobuf.Message");
+        jsource.addImport("com.google.protobuf.util.JsonFormat");
+
+        var fsource = jsource.addField("JsonFormat.Printer", "PRINTER");
+        fsource.setStatic(true);
+        fsource.setInitializer("JsonFormat.printer().omittingInsignificantWhitespace()");
+        fsource = jsource.addField("char[]", "HEX");
+        fsource.setStatic(true);
+        fsource.setInitializer("\"0123456789abcdef\".toCharArray()");
+
+        // Walk all message types that are reachable from requests and responses
+        var serviceTypes = new ArrayList<MessageType>();
+        var queue = new ArrayDeque<MessageType>();
+        for (var method : service.getMethodList()) {
+            for (var typeName : new String[] { method.getInputType(), method.getOutputType() }) {
+                var messageType = resolve(typeName, queue);
+                if (messageType != null && !serviceTypes.contains(messageType)) {
+                    serviceTypes.add(messageType);
+                }
+            }
+        }
+        while (!queue.isEmpty()) {
+            var messageType = queue.poll();
+            for (var field : messageType.descriptor.getFieldList()) {
+                if (field.getType() == Type.TYPE_MESSAGE) {
+                    var fieldType = resolve(field.getTypeName(), queue);
+                    if (fieldType != null && fieldType.mapEntry) {
+                        // Map entries are inlined, but their values may be messages
+                        var valueField = fieldType.descriptor.getField(1);
+                        if (valueField.getType() == Type.TYPE_MESSAGE) {
+                            resolve(valueField.getTypeName(), queue);
+                        }
+                    }
+                }
+            }
+        }
+
+        var msource = jsource.addMethod("write");
+        msource.setJavadoc("Writes a message as JSON. Messages that are not used by the service are written\n"
+                + "with JsonFormat.\n");
+        msource.setStatic(true);
+        msource.addArg("Message", "message");
+        msource.addArg("Appendable", "out");
+        msource.addThrows("IOException");
+        var first = true;
+        for (var messageType : serviceTypes) {
+            if (messageType.writerName != null) {
+                msource.body().append(first ? "if" : "} else if").append(" (message instanceof ")
+                        .append(messageType.javaClassname).append(") {\n");
+                msource.body().append("    ").append(messageType.writerName).append("((")
+                        .append(messageType.javaClassname).append(") message, out);\n");
+                first = false;
+            }
+        }
+        if (first) {
+            msource.body().append("PRINTER.appendTo(message, out);\n");
+        } else {
+            msource.body().append("} else {\n");
+            msource.body().append("    PRINTER.appendTo(message, out);\n");
+            msource.body().append("}\n");
+        }
+
+        msource = jsource.addMethod("toJson");
+        msource.setJavadoc("Returns a message as JSON string.\n");
+        msource.setStatic(true);
+        msource.setReturn("String");
+        msource.addArg("Message", "message");
+        msource.body().append("var buf = new StringBuilder();\n");
+        msource.body().append("try {\n");
+        msource.body().append("    write(message, buf);\n");
+        msource.body().append("} catch (IOException e) {\n");
+        msource.body().append("    throw new UncheckedIOException(e); // Not thrown by StringBuilder\n");
+        msource.body().append("}\n");
+        msource.body().append("return buf.toString();\n");
+
+        for (var messageType : messageTypes.values()) {
+            if (messageType.writerName != null) {
+                appendWriter(jsource, messageType);
+            }
+        }
+
+        appendHelpers(jsource);
+        return jsource;
+    }
+
+    private void appendWriter(SourceBuilder jsource, MessageType messageType) {
+        var msource = jsource.addMethod(messageType.writerName);
+        msource.setStatic(true);
+        msource.addArg(messageType.javaClassname, "message");
+        msource.addArg("Appendable", "out");
+        msource.addThrows("IOException");
+
+        var body = msource.body();
+        if (messageType.descriptor.getFieldCount() == 0) {
+            body.append("out.append(\"{}\");\n");
+            return;
+        }
+        body.append("var sep = '{';\n");
+        for (var field : messageType.descriptor.getFieldList()) {
+            var camelName = getCamelName(field.getName());
+            body.append("if (").append(getPresenceCondition(messageType, field, camelName)).append(") {\n");
+            body.append("    out.append(sep).append(\"\\\"").append(getJsonName(field)).append("\\\":");
+
+            var fieldType = field.getType() == Type.TYPE_MESSAGE ? messageTypes.get(field.getTypeName()) : null;
+            if (fieldType != null && fieldType.mapEntry) {
+                var keyField = fieldType.descriptor.getField(0);
+                var valueField = fieldType.descriptor.getField(1);
+                body.append("{\");\n");
+                body.append("    var n = 0;\n");
+                body.append("    for (var entry : message.get").append(camelName).append("Map().entrySet()) {\n");
+                body.append("        if (n++ > 0) {\n");
+                body.append("            out.append(',');\n");
+                body.append("        }\n");
+                body.append("        ").append(getKeyStatement(keyField, "entry.getKey()")).append("\n");
+                body.append("        out.append(':');\n");
+                body.append("        ").append(getValueStatement(valueField, "entry.getValue()", null)).append("\n");
+                body.append("    }\n");
+                body.append("    out.append('}');\n");
+            } else if (field.getLabel() == Label.LABEL_REPEATED) {
+                var number = messageType.proto3 ? "message.get" + camelName + "Value(i)" : null;
+                body.append("[\");\n");
+                body.append("    for (int i = 0; i < message.get").append(camelName).append("Count(); i++) {\n");
+                body.append("        if (i > 0) {\n");
+                body.append("            out.append(',');\n");
+                body.append("        }\n");
+                body.append("        ").append(getValueStatement(field, "message.get" + camelName + "(i)", number))
+                        .append("\n");
+                body.append("    }\n");
+                body.append("    out.append(']');\n");
+            } else {
+                var number = messageType.proto3 ? "message.get" + camelName + "Value()" : null;
+                body.append("\");\n");
+                body.append("    ").append(getValueStatement(field, "message.get" + camelName + "()", number))
+                        .append("\n");
+            }
+            body.append("    sep = ',';\n");
+            body.append("}\n");
+        }
+        body.append("out.append(sep == '{' ? \"{}\" : \"}\");\n");
+    }
+
+    private String getPresenceCondition(MessageType messageType, FieldDescriptorProto field, String camelName) {
+        var getter = "message.get" + camelName + "()";
+        if (field.getLabel() == Label.LABEL_REPEATED) {
+            return "message.get" + camelName + "Count() > 0";
+        } else if (field.getProto3Optional()) {
+            // Synthetic oneof, protoc generates a has method but no case enum
+            return "message.has" + camelName + "()";
+        } else if (field.hasOneofIndex()) {
+            var oneofName = getCamelName(messageType.descriptor.getOneofDecl(field.getOneofIndex()).getName());
+            return "message.get" + oneofName + "Case() == " + messageType.javaClassname + "." + oneofName + "Case."
+                    + field.getName().toUpperCase();
+        } else if (!messageType.proto3 || field.getType() == Type.TYPE_MESSAGE) {
+            return "message.has" + camelName + "()";
+        }
+
+        // Without presence, proto3 fields are only written when they do not have the default value
+        switch (field.getType()) {
+        case TYPE_STRING:
+        case TYPE_BYTES:
+            return "!" + getter + ".isEmpty()";
+        case TYPE_BOOL:
+            return getter;
+        case TYPE_ENUM:
+            return "message.get" + camelName + "Value() != 0";
+        case TYPE_DOUBLE:
+            return "Double.doubleToRawLongBits(" + getter + ") != 0";
+        case TYPE_FLOAT:
+            return "Float.floatToRawIntBits(" + getter + ") != 0";
+        default:
+            return getter + " != 0";
+        }
+    }
+
+    /**
+     * Returns a statement that writes a map key, which JSON requires to be a string.
+     */
+    private static String getKeyStatement(FieldDescriptorProto field, String expr) {
+        switch (field.getType()) {
+        case TYPE_STRING:
+            return "writeString(" + expr + ", out);";
+        case TYPE_BOOL:
+            return "out.append(" + expr + " ? \"\\\"true\\\"\" : \"\\\"false\\\"\");";
+        case TYPE_UINT32:
+        case TYPE_FIXED32:
+            return "out.append('\"').append(Integer.toUnsignedString(" + expr + ")).append('\"');";
+        case TYPE_UINT64:
+        case TYPE_FIXED64:
+            return "out.append('\"').append(Long.toUnsignedString(" + expr + ")).append('\"');";
+        default:
+            return "out.append('\"').append(String.valueOf(" + expr + ")).append('\"');";
+        }
+    }
+
+    /**
+     * Returns a statement that writes a value. For proto3 enums, the number expression gives access to values that
+     * are not known to the generated enum.
+     */
+    private String getValueStatement(FieldDescriptorProto field, String expr, String numberExpr) {
+        switch (field.getType()) {
+        case TYPE_INT32:
+        case TYPE_SINT32:
+        case TYPE_SFIXED32:
+            return "out.append(Integer.toString(" + expr + "));";
+        case TYPE_UINT32:
+        case TYPE_FIXED32:
+            return "out.append(Integer.toUnsignedString(" + expr + "));";
+        case TYPE_INT64:
+        case TYPE_SINT64:
+        case TYPE_SFIXED64:
+            return "out.append('\"').append(Long.toString(" + expr + ")).append('\"');";
+        case TYPE_UINT64:
+        case TYPE_FIXED64:
+            return "out.append('\"').append(Long.toUnsignedString(" + expr + ")).append('\"');";
+        case TYPE_FLOAT:
+            return "writeFloat(" + expr + ", out);";
+        case TYPE_DOUBLE:
+            return "writeDouble(" + expr + ", out);";
+        case TYPE_BOOL:
+            return "out.append(" + expr + " ? \"true\" : \"false\");";
+        case TYPE_STRING:
+            return "writeString(" + expr + ", out);";
+        case TYPE_BYTES:
+            return "writeBytes(" + expr + ", out);";
+        case TYPE_ENUM:
+            return "writeEnum(" + expr + ", " + (numberExpr != null ? numberExpr : expr + ".getNumber()") + ", out);";
+        case TYPE_MESSAGE:
+            var messageType = messageTypes.get(field.getTypeName());
+            if (messageType != null && messageType.writerName != null) {
+                return messageType.writerName + "(" + expr + ", out);";
+            } else {
+                return "PRINTER.appendTo(" + expr + ", out);";
+            }
+        default:
+            throw new IllegalStateException("Unexpected field type " + field.getType());
+        }
+    }
+
+    private static void appendHelpers(SourceBuilder jsource) {
+        var msource = jsource.addMethod("writeString");
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.addArg("String", "value");
+        msource.addArg("Appendable", "out");
+        msource.addThrows("IOException");
+        msource.body().append("out.append('\"');\n");
+        msource.body().append("var start = 0;\n");
+        msource.body().append("for (int i = 0; i < value.length(); i++) {\n");
+        msource.body().append("    var c = value.charAt(i);\n");
+        msource.body().append("    if (c >= 0x20 && c != '\"' && c != '\\\\' && c != 0x2028 && c != 0x2029) {\n");
+        msource.body().append("        continue;\n");
+        msource.body().append("    }\n");
+        msource.body().append("    out.append(value, start, i).append('\\\\');\n");
+        msource.body().append("    if (c == '\"' || c == '\\\\') {\n");
+        msource.body().append("        out.append(c);\n");
+        msource.body().append("    } else {\n");
+        msource.body().append("        out.append('u').append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF])\n");
+        msource.body().append("                .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);\n");
+        msource.body().append("    }\n");
+        msource.body().append("    start = i + 1;\n");
+        msource.body().append("}\n");
+        msource.body().append("out.append(value, start, value.length()).append('\"');\n");
+
+        msource = jsource.addMethod("writeBytes");
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.addArg("ByteString", "value");
+        msource.addArg("Appendable", "out");
+        msource.addThrows("IOException");
+        msource.body().append("out.append('\"').append(Base64.getEncoder().encodeToString(value.toByteArray()))")
+                .append(".append('\"');\n");
+
+        msource = jsource.addMethod("writeDouble");
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.addArg("double", "value");
+        msource.addArg("Appendable", "out");
+        msource.addThrows("IOException");
+        msource.body().append("if (Double.isNaN(value)) {\n");
+        msource.body().append("    out.append(\"\\\"NaN\\\"\");\n");
+        msource.body().append("} else if (Double.isInfinite(value)) {\n");
+        msource.body().append("    out.append(value > 0 ? \"\\\"Infinity\\\"\" : \"\\\"-Infinity\\\"\");\n");
+        msource.body().append("} else {\n");
+        msource.body().append("    out.append(Double.toString(value));\n");
+        msource.body().append("}\n");
+
+        msource = jsource.addMethod("writeFloat");
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.addArg("float", "value");
+        msource.addArg("Appendable", "out");
+        msource.addThrows("IOException");
+        msource.body().append("if (Float.isNaN(value)) {\n");
+        msource.body().append("    out.append(\"\\\"NaN\\\"\");\n");
+        msource.body().append("} else if (Float.isInfinite(value)) {\n");
+        msource.body().append("    out.append(value > 0 ? \"\\\"Infinity\\\"\" : \"\\\"-Infinity\\\"\");\n");
+        msource.body().append("} else {\n");
+        msource.body().append("    out.append(Float.toString(value));\n");
+        msource.body().append("}\n");
+
+        // Proto3 enums have an UNRECOGNIZED constant for unknown numbers, which JsonFormat writes as number
+        msource = jsource.addMethod("writeEnum");
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.addArg("Enum<?>", "value");
+        msource.addArg("int", "number");
+        msource.addArg("Appendable", "out");
+        msource.addThrows("IOException");
+        msource.body().append("if (value.name().equals(\"UNRECOGNIZED\")) {\n");
+        msource.body().append("    out.append(Integer.toString(number));\n");
+        msource.body().append("} else {\n");
+        msource.body().append("    out.append('\"').append(value.name()).append('\"');\n");
+        msource.body().append("}\n");
+    }
+
+    /**
+     * Resolves a message type by its fully-qualified type name, and queues it for walking its fields when it is seen
+     * for the first time. Returns null if the type is not found.
+     */
+    private MessageType resolve(String typeName, ArrayDeque<MessageType> queue) {
+        var messageType = messageTypes.get(typeName);
+        if (messageType != null) {
+            return messageType;
+        }
+        var symbol = index.getSymbol(typeName);
+        if (symbol == null || symbol.getMessageType() == null) {
+            return null;
+        }
+        var file = symbol.getFile();
+        var descriptor = symbol.getMessageType();
+        messageType = new MessageType(file, descriptor, symbol.getJavaClassname());
+        messageTypes.put(typeName, messageType);
+        if (!messageType.mapEntry && isSupported(file, descriptor, queue)) {
+            messageType.writerName = getWriterName(symbol.getName());
+            queue.add(messageType);
+        }
+        return messageType;
+    }
+
+    /**
+     * Returns whether a writer can be generated for a message. Well-known types have a special JSON mapping, which
+     * is left to JsonFormat.
+     */
+    private boolean isSupported(FileDescriptorProto file, DescriptorProto descriptor, ArrayDeque<MessageType> queue) {
+        if (file.getPackage().equals("google.protobuf")) {
+            return false;
+        }
+        for (var field : descriptor.getFieldList()) {
+            if (field.getType() == Type.TYPE_GROUP || RENAMED_ACCESSORS.contains(getCamelName(field.getName()))) {
+                return false;
+            }
+            if (field.getType() == Type.TYPE_MESSAGE) {
+                var fieldType = resolve(field.getTypeName(), queue);
+                if (fieldType == null) {
+                    return false;
+                } else if (fieldType.mapEntry) {
+                    var valueField = fieldType.descriptor.getField(1);
+                    if (valueField.getType() == Type.TYPE_ENUM) {
+                        return false; // Accessors for enum map values differ between proto2 and proto3
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private String getWriterName(String name) {
+        var writerName = "write" + name.replace(".", "");
+        var uniqueName = writerName;
+        for (int i = 2; !writerNames.add(uniqueName); i++) {
+            uniqueName = writerName + i;
+        }
+        return uniqueName;
+    }
+
+    private static String getJsonName(FieldDescriptorProto field) {
+        if (field.hasJsonName()) {
+            return field.getJsonName();
+        }
+        return Introspector.decapitalize(getCamelName(field.getName()));
+    }
+
+    /**
+     * Converts a field name to the form used in protobuf-java accessors. For example: parameter_value becomes
+     * ParameterValue.
+     */
+    private static String getCamelName(String name) {
+        var buf = new StringBuilder(name.length());
+        var capitalizeNext = true;
+        for (int i = 0; i < name.length(); i++) {
+            var c = name.charAt(i);
+            if (Character.isLowerCase(c)) {
+                buf.append(capitalizeNext ? Character.toUpperCase(c) : c);
+                capitalizeNext = false;
+            } else if (Character.isUpperCase(c)) {
+                buf.append(c);
+                capitalizeNext = false;
+            } else if (Character.isDigit(c)) {
+                buf.append(c);
+                capitalizeNext = true;
+            } else {
+                capitalizeNext = true;
+            }
+        }
+        return buf.toString();
+    }
+
+    private static class MessageType {
+
+        private DescriptorProto descriptor;
+        private String javaClassname;
+        private boolean proto3;
+        private boolean mapEntry;
+        private String writerName;
+
+        MessageType(FileDescriptorProto file, DescriptorProto descriptor, String javaClassname) {
+            this.descriptor = descriptor;
+            this.javaClassname = javaClassname;
+            proto3 = file.getSyntax().equals("proto3");
+            mapEntry = descriptor.getOptions().getMapEntry();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package org.yamcs.protoc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+
+/**
+ * Immutable index of the descriptors in a {@link CodeGeneratorRequest}. Once built, it may be shared between threads.
+ */
+public class ProtoIndex {
+
+    private final Map<String, FileDescriptorProto> filesByName;
+    private final List<FileDescriptorProto> filesToGenerate;
+
+    private final Map<String, String> outerClassnames;
+    private final Map<String, Symbol> symbols;
+    private final Map<DescriptorProto, Symbol> symbolsByMessageType;
+
+    private final Map<ServiceDescriptorProto, String> serviceComments;
+    private final Map<MethodDescriptorProto, String> methodComments;
+    private final Map<MethodDescriptorProto, String> methodConstants;
+
+    private final long commentScanTime;
+
+    public ProtoIndex(CodeGeneratorRequest request) {
+        var filesByName = new HashMap<String, FileDescriptorProto>();
+        var filesToGenerate = new ArrayList<FileDescriptorProto>();
+        var outerClassnames = new HashMap<String, String>();
+        var symbols = new HashMap<String, Symbol>();
+        var symbolsByMessageType = new IdentityHashMap<DescriptorProto, Symbol>();
+        var serviceComments = new IdentityHashMap<ServiceDescriptorProto, String>();
+        var methodComments = new IdentityHashMap<MethodDescriptorProto, String>();
+        var methodConstants = new IdentityHashMap<MethodDescriptorProto, String>();
+
+        // Dependencies are only indexed for type resolution. Generate code only for
+        // the files that protoc was explicitly asked to compile.
+        var fileToGenerateNames = new HashSet<>(request.getFileToGenerateList());
+
+        var commentScanTime = 0L;
+
+        for (var file : request.getProtoFileList()) {
+            filesByName.put(file.getName(), file);
+            if (fileToGenerateNames.contains(file.getName())) {
+                filesToGenerate.add(file);
+                var start = System.nanoTime();
+                scanComments(file, serviceComments, methodComments);
+                commentScanTime += System.nanoTime() - start;
+                for (var service : file.getServiceList()) {
+                    indexMethodConstants(service, methodConstants);
+                }
+            }
+
+            // Index all messages and enums, including nested ones, by fully-qualified protobuf name. Java names
+            // are resolved here once, instead of on every lookup.
+            var outerClassname = computeOuterClassname(file);
+            outerClassnames.put(file.getName(), outerClassname);
+            var javaPackage = getJavaPackage(file);
+            if (!file.getOptions().getJavaMultipleFiles()) {
+                javaPackage = javaPackage.isEmpty() ? outerClassname : javaPackage + "." + outerClassname;
+            }
+            var prefix = file.getPackage().isEmpty() ? "." : "." + file.getPackage() + ".";
+            indexTypes(file, prefix, "", javaPackage, file.getMessageTypeList(), file.getEnumTypeList(), symbols,
+                    symbolsByMessageType);
+        }
+
+        this.filesByName = Collections.unmodifiableMap(filesByName);
+        this.filesToGenerate = Collections.unmodifiableList(filesToGenerate);
+        this.outerClassnames = Collections.unmodifiableMap(outerClassnames);
+        this.symbols = Collections.unmodifiableMap(symbols);
+        this.symbolsByMessageType = Collections.unmodifiableMap(symbolsByMessageType);
+        this.serviceComments = Collections.unmodifiableMap(serviceComments);
+        this.methodComments = Collections.unmodifiableMap(methodComments);
+        this.methodConstants = Collections.unmodifiableMap(methodConstants);
+        this.commentScanTime = commentScanTime;
+    }
+
+    private static void indexTypes(FileDescriptorProto file, String prefix, String scope, String javaPackage,
+            List<DescriptorProto> messageTypes, List<EnumDescriptorProto> enumTypes, Map<String, Symbol> symbols,
+            Map<DescriptorProto, Symbol> symbolsByMessageType) {
+        for (var messageType : messageTypes) {
+            var symbol = new Symbol(file, prefix, scope, javaPackage, messageType.getName(), messageType, null);
+            symbols.put(symbol.fullName, symbol);
+            symbolsByMessageType.put(messageType, symbol);
+            indexTypes(file, prefix, symbol.name + ".", symbol.javaClassname, messageType.getNestedTypeList(),
+                    messageType.getEnumTypeList(), symbols, symbolsByMessageType);
+        }
+        for (var enumType : enumTypes) {
+            var symbol = new Symbol(file, prefix, scope, javaPackage, enumType.getName(), null, enumType);
+            symbols.put(symbol.fullName, symbol);
+        }
+    }
+
+    private static String computeOuterClassname(FileDescriptorProto file) {
+        if (file.getOptions().hasJavaOuterClassname()) {
+            return file.getOptions().getJavaOuterClassname();
+        } else {
+            var name = file.getName();
+            name = name.substring(name.lastIndexOf('/') + 1).replace(".proto", "");
+            return name.substring(0, 1).toUpperCase() + name.substring(1);
+        }
+    }
+
+    /**
+     * Assigns the names of the static fields that hold method descriptors. Names that would be shared by several
+     * methods of the service, such as those of GetURL and GetUrl, get the method index as suffix.
+     */
+    private static void indexMethodConstants(ServiceDescriptorProto service,
+            Map<MethodDescriptorProto, String> methodConstants) {
+        var names = new String[service.getMethodCount()];
+        var counts = new HashMap<String, Integer>();
+        for (int i = 0; i < names.length; i++) {
+            names[i] = toConstantName(service.getMethod(i).getName());
+            counts.merge(names[i], 1, Integer::sum);
+        }
+        var taken = new HashSet<>(counts.keySet());
+        for (int i = 0; i < names.length; i++) {
+            var name = names[i];
+            if (counts.get(name) > 1) {
+                name += "_" + i;
+                while (!taken.add(name)) {
+                    name += "_";
+                }
+            }
+            methodConstants.put(service.getMethod(i), name);
+        }
+    }
+
+    private static String toConstantName(String methodName) {
+        var buf = new StringBuilder("METHOD_");
+        for (int i = 0; i < methodName.length(); i++) {
+            var c = methodName.charAt(i);
+            if (i > 0 && Character.isUpperCase(c)) {
+                var prev = methodName.charAt(i - 1);
+                var next = (i + 1 < methodName.length()) ? methodName.charAt(i + 1) : '_';
+                if (Character.isLowerCase(prev) || Character.isDigit(prev)
+                        || (Character.isUpperCase(prev) && Character.isLowerCase(next))) {
+                    buf.append('_');
+                }
+            }
+            buf.append(Character.toUpperCase(c));
+        }
+        return buf.toString();
+    }
+
+    private static void scanComments(FileDescriptorProto file, Map<ServiceDescriptorProto, String> serviceComments,
+            Map<MethodDescriptorProto, String> methodComments) {
+        var services = file.getServiceList();
+
+        for (var location : file.getSourceCodeInfo().getLocationList()) {
+            if (location.hasLeadingComments()) {
+                if (location.getPath(0) == FileDescriptorProto.SERVICE_FIELD_NUMBER) {
+                    var service = services.get(location.getPath(1));
+                    if (location.getPathCount() == 2) {
+                        serviceComments.put(service, location.getLeadingComments());
+                    } else if (location.getPathCount() == 4) {
+                        if (location.getPath(2) == ServiceDescriptorProto.METHOD_FIELD_NUMBER) {
+                            var method = service.getMethod(location.getPath(3));
+                            methodComments.put(method, location.getLeadingComments());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public Map<String, FileDescriptorProto> getFilesByName() {
+        return filesByName;
+    }
+
+    /**
+     * Returns the files that protoc requested output for, in request order.
+     */
+    public List<FileDescriptorProto> getFilesToGenerate() {
+        return filesToGenerate;
+    }
+
+    /**
+     * Returns a message or enum type by its fully-qualified type name, as used in field and method descriptors (with
+     * a leading dot). Returns null if the type is not known.
+     */
+    public Symbol getSymbol(String typeName) {
+        return symbols.get(typeName);
+    }
+
+    /**
+     * Returns a message type by its fully-qualified type name, as used in field and method descriptors (with a
+     * leading dot). Nested types are included.
+     */
+    public DescriptorProto getMessageType(String typeName) {
+        var symbol = symbols.get(typeName);
+        return (symbol != null) ? symbol.messageType : null;
+    }
+
+    public FileDescriptorProto getFile(DescriptorProto messageType) {
+        return symbolsByMessageType.get(messageType).file;
+    }
+
+    /**
+     * Returns the Java package or enclosing class of the class that protoc generates for a message type.
+     */
+    public String getJavaPackage(DescriptorProto messageType) {
+        return symbolsByMessageType.get(messageType).javaPackage;
+    }
+
+    /**
+     * Returns the fully-qualified name of the class that protoc generates for a message type.
+     */
+    public String getJavaClassname(DescriptorProto messageType) {
+        return symbolsByMessageType.get(messageType).javaClassname;
+    }
+
+    /**
+     * Returns the Java package of the outer class of a file. Like protoc, this falls back to the protobuf package if
+     * the file has no java_package option.
+     */
+    public String getJavaPackage(FileDescriptorProto file) {
+        return file.getOptions().hasJavaPackage() ? file.getOptions().getJavaPackage() : file.getPackage();
+    }
+
+    /**
+     * Returns the simple name of the class that holds the descriptor of a file.
+     */
+    public String getOuterClassname(FileDescriptorProto file) {
+        return outerClassnames.get(file.getName());
+    }
+
+    public String getComment(ServiceDescriptorProto service) {
+        return serviceComments.get(service);
+    }
+
+    public String getComment(MethodDescriptorProto method) {
+        return methodComments.get(method);
+    }
+
+    /**
+     * Returns the name of the static field holding the descriptor of a method, for example METHOD_GET_PARAMETER.
+     * Names are unique within a service. Only available for methods of files to generate.
+     */
+    public String getMethodConstant(MethodDescriptorProto method) {
+        return methodConstants.get(method);
+    }
+
+    /**
+     * Returns the time in nanoseconds that was spent scanning comments while building this index.
+     */
+    public long getCommentScanTime() {
+        return commentScanTime;
+    }
+
+    /**
+     * A message or enum type, with its resolved Java class name.
+     * <p>
+     * Message types are looked up by identity, so that equal definitions in different files do not clash.
+     */
+    public static final class Symbol {
+
+        private final FileDescriptorProto file;
+        private final String fullName;
+        private final String name;
+        private final String javaPackage;
+        private final String javaClassname;
+        private final DescriptorProto messageType;
+        private final EnumDescriptorProto enumType;
+
+        private Symbol(FileDescriptorProto file, String prefix, String scope, String javaPackage, String simpleName,
+                DescriptorProto messageType, EnumDescriptorProto enumType) {
+            this.file = file;
+            this.name = scope + simpleName;
+            this.fullName = prefix + name;
+            this.javaPackage = javaPackage;
+            this.javaClassname = javaPackage.isEmpty() ? simpleName : javaPackage + "." + simpleName;
+            this.messageType = messageType;
+            this.enumType = enumType;
+        }
+
+        public FileDescriptorProto getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the fully-qualified protobuf name, with a leading dot.
+         */
+        public String getFullName() {
+            return fullName;
+        }
+
+        /**
+         * Returns the name relative to the protobuf package, for example {@code Outer.Inner}.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the Java package, or for nested types the fully-qualified name of the enclosing class.
+         */
+        public String getJavaPackage() {
+            return javaPackage;
+        }
+
+        public String getJavaClassname() {
+            return javaClassname;
+        }
+
+        /**
+         * Returns the message descriptor, or null if this is an enum type.
+         */
+        public DescriptorProto getMessageType() {
+            return messageType;
+        }
+
+        /**
+         * Returns the enum descriptor, or null if this is a message type.
+         */
+        public EnumDescriptorProto getEnumType() {
+            return enumType;
+        }
+    }
+}
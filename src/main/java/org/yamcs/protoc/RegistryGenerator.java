@@ -0,0 +1,232 @@
+package org.yamcs.protoc;
+
+import java.util.ArrayList;
+
+import javax.lang.model.SourceVersion;
+
+/**
+ * Generates a single registry class that lists all services of a generation run, so that servers and tooling can
+ * bootstrap from constant data instead of scanning the classpath or traversing descriptors.
+ */
+public class RegistryGenerator {
+
+    /**
+     * Number of entries that are created by a single static helper method.
+     */
+    private static final int ENTRIES_PER_METHOD = 100;
+
+    private ProtoIndex index;
+    private String generatedAnnotation;
+
+    public RegistryGenerator(ProtoIndex index, String generatedAnnotation) {
+        this.index = index;
+        this.generatedAnnotation = generatedAnnotation;
+    }
+
+    /**
+     * Returns whether the given value can be used as the fully-qualified name of the registry class.
+     */
+    public static boolean isValidClassName(String className) {
+        return className.contains(".") && SourceVersion.isName(className);
+    }
+
+    public SourceBuilder generate(String className) {
+        var idx = className.lastIndexOf('.');
+        var jsource = new SourceBuilder(className.substring(idx + 1));
+        jsource.setFinal(true);
+        jsource.setJavadoc("Registry of the services that were generated together with this class.\n");
+        jsource.setPackage(className.substring(0, idx));
+        jsource.addAnnotation(generatedAnnotation);
+        jsource.addImport("java.util.HashMap");
+        jsource.addImport("java.util.List");
+        jsource.addImport("java.util.Map");
+        jsource.addImport("java.util.function.Function");
+        jsource.addImport("java.util.function.Supplier");
+        jsource.addImport("com.google.protobuf.Descriptors.ServiceDescriptor");
+        jsource.addImport("org.yamcs.api.Api");
+        jsource.addImport("org.yamcs.api.MethodHandler");
+
+        // Entries are created in chunks, so that a registry of many services does not exceed the size limit of
+        // a single method. Method shapes are packed into string constants, so that each entry has a fixed size.
+        var chunks = new ArrayList<StringBuilder>();
+        var entryIndex = 0;
+        for (var file : index.getFilesToGenerate()) {
+            var javaPackage = index.getJavaPackage(file);
+            if (javaPackage.isEmpty() && file.getServiceCount() > 0) {
+                // Classes in the unnamed package cannot be referenced from the registry
+                throw new IllegalArgumentException("Cannot add the services of " + file.getName()
+                        + " to the registry, because the file has no package");
+            }
+            var outerClassname = javaPackage + "." + index.getOuterClassname(file);
+            for (int i = 0; i < file.getServiceCount(); i++) {
+                var service = file.getService(i);
+                var serviceName = file.getPackage().isEmpty()
+                        ? service.getName()
+                        : file.getPackage() + "." + service.getName();
+                var serviceClassname = javaPackage + ".Abstract" + service.getName();
+                var clientClassname = javaPackage + "." + service.getName() + "Client";
+                var names = new StringBuilder();
+                var kinds = new StringBuilder();
+                for (int j = 0; j < service.getMethodCount(); j++) {
+                    var method = service.getMethod(j);
+                    names.append(j == 0 ? "" : ",").append(method.getName());
+                    kinds.append((method.getClientStreaming() ? 2 : 0) + (method.getServerStreaming() ? 1 : 0));
+                }
+
+                if (entryIndex % ENTRIES_PER_METHOD == 0) {
+                    chunks.add(new StringBuilder());
+                }
+                var body = chunks.get(chunks.size() - 1);
+                body.append("entries[").append(entryIndex).append("] = new Entry(\"").append(serviceName)
+                        .append("\",\n");
+                body.append("        ").append(serviceClassname).append(".class,\n");
+                body.append("        ").append(clientClassname).append(".class,\n");
+                body.append("        ").append(clientClassname).append("::new,\n");
+                body.append("        () -> ").append(outerClassname)
+                        .append(".getDescriptor().getServices().get(").append(i).append("),\n");
+                body.append("        \"").append(names).append("\",\n");
+                body.append("        \"").append(kinds).append("\");\n");
+                entryIndex++;
+            }
+        }
+
+        var fsource = jsource.addField("List<Entry>", "ENTRIES");
+        fsource.setStatic(true);
+        fsource.setInitializer("List.of(createEntries())");
+
+        fsource = jsource.addField("Map<String, Entry>", "ENTRIES_BY_NAME");
+        fsource.setStatic(true);
+        fsource.setInitializer("indexEntries()");
+
+        var msource = jsource.addMethod("createEntries");
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.setReturn("Entry[]");
+        msource.body().append("var entries = new Entry[").append(entryIndex).append("];\n");
+        for (int i = 0; i < chunks.size(); i++) {
+            msource.body().append("createEntries").append(i).append("(entries);\n");
+        }
+        msource.body().append("return entries;\n");
+
+        for (int i = 0; i < chunks.size(); i++) {
+            msource = jsource.addMethod("createEntries" + i);
+            msource.setPrivate(true);
+            msource.setStatic(true);
+            msource.addArg("Entry[]", "entries");
+            msource.body().append(chunks.get(i));
+        }
+
+        msource = jsource.addMethod("indexEntries");
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.setReturn("Map<String, Entry>");
+        msource.body().append("var entriesByName = new HashMap<String, Entry>();\n");
+        msource.body().append("for (var entry : ENTRIES) {\n");
+        msource.body().append("    entriesByName.put(entry.getServiceName(), entry);\n");
+        msource.body().append("}\n");
+        msource.body().append("return entriesByName;\n");
+
+        msource = jsource.addMethod("getEntries");
+        msource.setJavadoc("Returns all services, in generation order.\n");
+        msource.setStatic(true);
+        msource.setReturn("List<Entry>");
+        msource.body().append("return ENTRIES;\n");
+
+        msource = jsource.addMethod("getEntry");
+        msource.setJavadoc("Returns a service by its fully-qualified protobuf name, or null if it is not known.\n");
+        msource.setStatic(true);
+        msource.setReturn("Entry");
+        msource.addArg("String", "serviceName");
+        msource.body().append("return ENTRIES_BY_NAME.get(serviceName);\n");
+
+        appendEntryClass(jsource);
+        return jsource;
+    }
+
+    private static void appendEntryClass(SourceBuilder jsource) {
+        var csource = jsource.addNestedClass("Entry");
+        csource.setStatic(true);
+        csource.setFinal(true);
+        csource.setJavadoc("A generated service, with its generated classes and the shape of its methods.\n");
+        csource.addField("String", "serviceName");
+        csource.addField("Class<?>", "serviceClass");
+        csource.addField("Class<?>", "clientClass");
+        csource.addField("Function<MethodHandler, ? extends Api<Void>>", "clientFactory");
+        csource.addField("Supplier<ServiceDescriptor>", "descriptorSupplier");
+        csource.addField("String[]", "methodNames");
+        csource.addField("String", "methodKinds");
+
+        var ccsource = csource.addConstructor();
+        ccsource.addArg("String", "serviceName");
+        ccsource.addArg("Class<?>", "serviceClass");
+        ccsource.addArg("Class<?>", "clientClass");
+        ccsource.addArg("Function<MethodHandler, ? extends Api<Void>>", "clientFactory");
+        ccsource.addArg("Supplier<ServiceDescriptor>", "descriptorSupplier");
+        ccsource.addArg("String", "methodNames");
+        ccsource.addArg("String", "methodKinds");
+        ccsource.body().append("this.serviceName = serviceName;\n");
+        ccsource.body().append("this.serviceClass = serviceClass;\n");
+        ccsource.body().append("this.clientClass = clientClass;\n");
+        ccsource.body().append("this.clientFactory = clientFactory;\n");
+        ccsource.body().append("this.descriptorSupplier = descriptorSupplier;\n");
+        ccsource.body().append("this.methodNames = methodNames.isEmpty()\n");
+        ccsource.body().append("        ? new String[0]\n");
+        ccsource.body().append("        : methodNames.split(\",\");\n");
+        ccsource.body().append("// Per method: 2 if client-streaming, plus 1 if server-streaming\n");
+        ccsource.body().append("this.methodKinds = methodKinds;\n");
+
+        var msource = csource.addMethod("getServiceName");
+        msource.setReturn("String");
+        msource.body().append("return serviceName;\n");
+
+        msource = csource.addMethod("getServiceClass");
+        msource.setJavadoc("Returns the generated abstract service class.\n");
+        msource.setReturn("Class<?>");
+        msource.body().append("return serviceClass;\n");
+
+        msource = csource.addMethod("getClientClass");
+        msource.setReturn("Class<?>");
+        msource.body().append("return clientClass;\n");
+
+        msource = csource.addMethod("newClient");
+        msource.setJavadoc("Creates a client that sends its calls to the given handler.\n");
+        msource.setReturn("Api<Void>");
+        msource.addArg("MethodHandler", "handler");
+        msource.body().append("return clientFactory.apply(handler);\n");
+
+        msource = csource.addMethod("getDescriptor");
+        msource.setJavadoc("Returns the service descriptor. This initializes the outer class of the proto file.\n");
+        msource.setReturn("ServiceDescriptor");
+        msource.body().append("return descriptorSupplier.get();\n");
+
+        msource = csource.addMethod("getMethodCount");
+        msource.setReturn("int");
+        msource.body().append("return methodNames.length;\n");
+
+        msource = csource.addMethod("getMethodName");
+        msource.setReturn("String");
+        msource.addArg("int", "methodIndex");
+        msource.body().append("return methodNames[methodIndex];\n");
+
+        msource = csource.addMethod("getMethodIndex");
+        msource.setJavadoc("Returns the index of a method by its simple name, or -1 if there is no such method.\n");
+        msource.setReturn("int");
+        msource.addArg("String", "methodName");
+        msource.body().append("for (int i = 0; i < methodNames.length; i++) {\n");
+        msource.body().append("    if (methodNames[i].equals(methodName)) {\n");
+        msource.body().append("        return i;\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+        msource.body().append("return -1;\n");
+
+        msource = csource.addMethod("isClientStreaming");
+        msource.setReturn("boolean");
+        msource.addArg("int", "methodIndex");
+        msource.body().append("return ((methodKinds.charAt(methodIndex) - '0') & 2) != 0;\n");
+
+        msource = csource.addMethod("isServerStreaming");
+        msource.setReturn("boolean");
+        msource.addArg("int", "methodIndex");
+        msource.body().append("return ((methodKinds.charAt(methodIndex) - '0') & 1) != 0;\n");
+    }
+}
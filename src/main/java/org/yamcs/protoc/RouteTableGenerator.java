@@ -0,0 +1,573 @@
+package org.yamcs.protoc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnknownFieldSet;
+
+/**
+ * Generates a static route table for the methods of a service that have a {@code google.api.http} option.
+ * <p>
+ * The option is read from the unknown fields of the method options, so that this plugin does not depend on the
+ * annotation protos. Path templates are parsed at generation time into a trie, which is emitted as code. Matching a
+ * request against the generated trie does not allocate.
+ */
+public class RouteTableGenerator {
+
+    /**
+     * Field number of the {@code google.api.http} extension of {@code google.protobuf.MethodOptions}.
+     */
+    static final int HTTP_FIELD_NUMBER = 72295728;
+
+    // Field numbers of google.api.HttpRule
+    private static final int[] VERB_FIELD_NUMBERS = { 2, 3, 4, 5, 6 };
+    private static final String[] VERBS = { "GET", "PUT", "POST", "DELETE", "PATCH" };
+    private static final int BODY_FIELD_NUMBER = 7;
+    private static final int CUSTOM_FIELD_NUMBER = 8;
+    private static final int ADDITIONAL_BINDINGS_FIELD_NUMBER = 11;
+    private static final int RESPONSE_BODY_FIELD_NUMBER = 12;
+
+    private ProtoIndex index;
+    private String generatedAnnotation;
+
+    public RouteTableGenerator(ProtoIndex index, String generatedAnnotation) {
+        this.index = index;
+        this.generatedAnnotation = generatedAnnotation;
+    }
+
+    /**
+     * Returns whether a method has a {@code google.api.http} option.
+     */
+    public static boolean hasRoute(MethodDescriptorProto method) {
+        return method.getOptions().getUnknownFields().hasField(HTTP_FIELD_NUMBER);
+    }
+
+    public SourceBuilder generate(FileDescriptorProto file, int serviceIndex) {
+        var service = file.getService(serviceIndex);
+        var javaPackage = index.getJavaPackage(file);
+        var javaName = service.getName() + "Routes";
+        var serviceClassName = "Abstract" + service.getName();
+
+        var routes = new ArrayList<Route>();
+        for (int i = 0; i < service.getMethodCount(); i++) {
+            var method = service.getMethod(i);
+            var field = method.getOptions().getUnknownFields().getField(HTTP_FIELD_NUMBER);
+            for (var bytes : field.getLengthDelimitedList()) {
+                var rule = parse(bytes, method);
+                addRoute(routes, i, method, rule);
+                for (var additionalBytes : rule.getField(ADDITIONAL_BINDINGS_FIELD_NUMBER).getLengthDelimitedList()) {
+                    addRoute(routes, i, method, parse(additionalBytes, method));
+                }
+            }
+        }
+
+        var root = new TrieNode();
+        var maxSegments = 0;
+        for (int i = 0; i < routes.size(); i++) {
+            var route = routes.get(i);
+            var node = root;
+            for (var segment : route.segments) {
+                if (segment.equals("*")) {
+                    node = (node.wildcard != null) ? node.wildcard : (node.wildcard = new TrieNode());
+                } else if (segment.equals("**")) {
+                    node = (node.doubleWildcard != null) ? node.doubleWildcard
+                            : (node.doubleWildcard = new TrieNode());
+                } else {
+                    node = node.literals.computeIfAbsent(segment, k -> new TrieNode());
+                }
+            }
+            node.routes.add(i);
+            maxSegments = Math.max(maxSegments, route.segments.size());
+        }
+
+        var jsource = new SourceBuilder(javaName);
+        jsource.setFinal(true);
+        jsource.setJavadoc("HTTP routes of " + service.getName() + ", as declared with google.api.http options.\n");
+        jsource.setPackage(javaPackage);
+        jsource.addAnnotation(generatedAnnotation);
+        jsource.addImport("java.util.List");
+        jsource.addImport("com.google.protobuf.Descriptors.MethodDescriptor");
+
+        var buf = new StringBuilder("{\n");
+        for (var route : routes) {
+            buf.append("            new Route(").append(route.methodIndex);
+            buf.append(", ").append(quote(route.verb));
+            buf.append(", ").append(quote(route.template));
+            buf.append(", ").append(route.customVerb == null ? "null" : quote(route.customVerb));
+            buf.append(", ").append(quote(route.body));
+            buf.append(", ").append(quote(route.responseBody));
+            buf.append(",\n                    new String[] {");
+            for (int i = 0; i < route.parameterNames.size(); i++) {
+                buf.append(i == 0 ? " " : ", ").append(quote(route.parameterNames.get(i)));
+            }
+            buf.append(route.parameterNames.isEmpty() ? "}" : " }");
+            buf.append(", new int[] {");
+            for (int i = 0; i < route.firstSegments.size(); i++) {
+                buf.append(i == 0 ? " " : ", ").append(route.firstSegments.get(i));
+            }
+            buf.append(route.firstSegments.isEmpty() ? "}" : " }");
+            buf.append(", new int[] {");
+            for (int i = 0; i < route.lastSegments.size(); i++) {
+                buf.append(i == 0 ? " " : ", ").append(route.lastSegments.get(i));
+            }
+            buf.append(route.lastSegments.isEmpty() ? "}" : " }");
+            buf.append("),\n");
+        }
+        buf.append("    }");
+
+        var fsource = jsource.addField("Route[]", "ROUTES");
+        fsource.setStatic(true);
+        fsource.setInitializer(buf.toString());
+        fsource = jsource.addField("List<Route>", "ROUTE_LIST");
+        fsource.setStatic(true);
+        fsource.setInitializer("List.of(ROUTES)");
+        fsource = jsource.addField("String[]", "NO_LITERALS");
+        fsource.setStatic(true);
+        fsource.setInitializer("{}");
+        fsource = jsource.addField("Node[]", "NO_CHILDREN");
+        fsource.setStatic(true);
+        fsource.setInitializer("{}");
+        fsource = jsource.addField("Route[]", "NO_ROUTES");
+        fsource.setStatic(true);
+        fsource.setInitializer("{}");
+        fsource = jsource.addField("Node", "ROOT");
+        fsource.setStatic(true);
+        fsource.setInitializer("buildTrie()");
+        fsource = jsource.addField("int", "MAX_SEGMENTS");
+        fsource.setStatic(true);
+        fsource.setInitializer(String.valueOf(maxSegments));
+
+        var msource = jsource.addMethod("getRoutes");
+        msource.setJavadoc("Returns all routes, in declaration order.\n");
+        msource.setStatic(true);
+        msource.setReturn("List<Route>");
+        msource.body().append("return ROUTE_LIST;\n");
+
+        msource = jsource.addMethod("buildTrie");
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.setReturn("Node");
+        var counter = new int[1];
+        var rootName = appendNode(msource, root, counter);
+        msource.body().append("return ").append(rootName).append(";\n");
+
+        appendRouteClass(jsource, serviceClassName);
+        appendNodeClass(jsource);
+        appendMatcherClass(jsource);
+        return jsource;
+    }
+
+    private static UnknownFieldSet parse(ByteString bytes, MethodDescriptorProto method) {
+        try {
+            return UnknownFieldSet.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Invalid google.api.http option on method " + method.getName(), e);
+        }
+    }
+
+    private static String getString(UnknownFieldSet fields, int number) {
+        var values = fields.getField(number).getLengthDelimitedList();
+        return values.isEmpty() ? null : values.get(values.size() - 1).toStringUtf8();
+    }
+
+    private static void addRoute(List<Route> routes, int methodIndex, MethodDescriptorProto method,
+            UnknownFieldSet rule) {
+        String verb = null;
+        String template = null;
+        for (int i = 0; i < VERB_FIELD_NUMBERS.length; i++) {
+            var path = getString(rule, VERB_FIELD_NUMBERS[i]);
+            if (path != null) {
+                verb = VERBS[i];
+                template = path;
+            }
+        }
+        var customValues = rule.getField(CUSTOM_FIELD_NUMBER).getLengthDelimitedList();
+        if (!customValues.isEmpty()) {
+            var custom = parse(customValues.get(customValues.size() - 1), method);
+            verb = getString(custom, 1);
+            template = getString(custom, 2);
+        }
+        if (verb == null || template == null) {
+            return; // No pattern, for example a rule that only has additional bindings
+        }
+
+        var route = new Route();
+        route.methodIndex = methodIndex;
+        route.verb = verb;
+        route.template = template;
+        route.body = getString(rule, BODY_FIELD_NUMBER);
+        route.body = (route.body == null) ? "" : route.body;
+        route.responseBody = getString(rule, RESPONSE_BODY_FIELD_NUMBER);
+        route.responseBody = (route.responseBody == null) ? "" : route.responseBody;
+        parseTemplate(route, method);
+        routes.add(route);
+    }
+
+    /**
+     * Parses a path template, for example <code>/v1/{name=shelves/*}/books:publish</code>, into segments and
+     * variables.
+     */
+    private static void parseTemplate(Route route, MethodDescriptorProto method) {
+        var template = route.template;
+        if (!template.startsWith("/")) {
+            throw invalidTemplate(route, method);
+        }
+
+        // Split on slashes and a custom verb, except within variables
+        var tokens = new ArrayList<String>();
+        var depth = 0;
+        var start = 1;
+        var end = template.length();
+        for (int i = 1; i < template.length(); i++) {
+            var c = template.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            } else if (c == '/' && depth == 0) {
+                tokens.add(template.substring(start, i));
+                start = i + 1;
+            } else if (c == ':' && depth == 0) {
+                end = i;
+                route.customVerb = template.substring(i + 1);
+                break;
+            }
+        }
+        if (depth != 0) {
+            throw invalidTemplate(route, method);
+        }
+        if (start < end || !tokens.isEmpty()) {
+            tokens.add(template.substring(start, end));
+        }
+
+        for (var token : tokens) {
+            if (token.startsWith("{") && token.endsWith("}")) {
+                var variable = token.substring(1, token.length() - 1);
+                var idx = variable.indexOf('=');
+                var name = (idx == -1) ? variable : variable.substring(0, idx);
+                var pattern = (idx == -1) ? "*" : variable.substring(idx + 1);
+                route.parameterNames.add(name);
+                route.firstSegments.add(route.segments.size());
+                for (var segment : pattern.split("/", -1)) {
+                    addSegment(route, method, segment);
+                }
+                route.lastSegments.add(route.segments.size() - 1);
+            } else {
+                addSegment(route, method, token);
+            }
+        }
+    }
+
+    private static void addSegment(Route route, MethodDescriptorProto method, String segment) {
+        if (segment.isEmpty() || segment.contains("{") || segment.contains("}")) {
+            throw invalidTemplate(route, method);
+        }
+        if (!route.segments.isEmpty() && route.segments.get(route.segments.size() - 1).equals("**")) {
+            throw invalidTemplate(route, method); // ** must be last
+        }
+        route.segments.add(segment);
+    }
+
+    private static IllegalArgumentException invalidTemplate(Route route, MethodDescriptorProto method) {
+        return new IllegalArgumentException(
+                "Invalid path template '" + route.template + "' on method " + method.getName());
+    }
+
+    /**
+     * Appends statements that create a node and its children, children first. Returns the name of the local
+     * variable that holds the node.
+     */
+    private static String appendNode(SourceBuilder.MethodBuilder msource, TrieNode node, int[] counter) {
+        var childNames = new ArrayList<String>();
+        for (var child : node.literals.values()) {
+            childNames.add(appendNode(msource, child, counter));
+        }
+        var wildcardName = (node.wildcard != null) ? appendNode(msource, node.wildcard, counter) : "null";
+        var doubleWildcardName = (node.doubleWildcard != null)
+                ? appendNode(msource, node.doubleWildcard, counter)
+                : "null";
+
+        var name = "n" + counter[0]++;
+        var body = msource.body();
+        body.append("var ").append(name).append(" = new Node(");
+        if (node.literals.isEmpty()) {
+            body.append("NO_LITERALS, NO_CHILDREN");
+        } else {
+            body.append("new String[] { ");
+            var first = true;
+            for (var literal : node.literals.keySet()) {
+                body.append(first ? "" : ", ").append(quote(literal));
+                first = false;
+            }
+            body.append(" }, new Node[] { ").append(String.join(", ", childNames)).append(" }");
+        }
+        body.append(", ").append(wildcardName).append(", ").append(doubleWildcardName).append(", ");
+        if (node.routes.isEmpty()) {
+            body.append("NO_ROUTES");
+        } else {
+            body.append("new Route[] { ");
+            for (int i = 0; i < node.routes.size(); i++) {
+                body.append(i == 0 ? "" : ", ").append("ROUTES[").append(node.routes.get(i)).append("]");
+            }
+            body.append(" }");
+        }
+        body.append(");\n");
+        return name;
+    }
+
+    private static void appendRouteClass(SourceBuilder jsource, String serviceClassName) {
+        var csource = jsource.addNestedClass("Route");
+        csource.setStatic(true);
+        csource.setFinal(true);
+        csource.setJavadoc("A binding of a method to an HTTP verb and path template.\n");
+        csource.addField("int", "methodIndex");
+        csource.addField("String", "verb");
+        csource.addField("String", "pathTemplate");
+        csource.addField("String", "customVerb");
+        csource.addField("String", "body");
+        csource.addField("String", "responseBody");
+        csource.addField("String[]", "parameterNames");
+        csource.addField("int[]", "firstSegments");
+        csource.addField("int[]", "lastSegments");
+
+        var ccsource = csource.addConstructor();
+        ccsource.addArg("int", "methodIndex");
+        ccsource.addArg("String", "verb");
+        ccsource.addArg("String", "pathTemplate");
+        ccsource.addArg("String", "customVerb");
+        ccsource.addArg("String", "body");
+        ccsource.addArg("String", "responseBody");
+        ccsource.addArg("String[]", "parameterNames");
+        ccsource.addArg("int[]", "firstSegments");
+        ccsource.addArg("int[]", "lastSegments");
+        ccsource.body().append("this.methodIndex = methodIndex;\n");
+        ccsource.body().append("this.verb = verb;\n");
+        ccsource.body().append("this.pathTemplate = pathTemplate;\n");
+        ccsource.body().append("this.customVerb = customVerb;\n");
+        ccsource.body().append("this.body = body;\n");
+        ccsource.body().append("this.responseBody = responseBody;\n");
+        ccsource.body().append("this.parameterNames = parameterNames;\n");
+        ccsource.body().append("this.firstSegments = firstSegments;\n");
+        ccsource.body().append("this.lastSegments = lastSegments;\n");
+
+        var msource = csource.addMethod("getMethod");
+        msource.setReturn("MethodDescriptor");
+        msource.body().append("return ").append(serviceClassName)
+                .append(".DESCRIPTOR.getMethods().get(methodIndex);\n");
+
+        msource = csource.addMethod("getVerb");
+        msource.setReturn("String");
+        msource.body().append("return verb;\n");
+
+        msource = csource.addMethod("getPathTemplate");
+        msource.setReturn("String");
+        msource.body().append("return pathTemplate;\n");
+
+        msource = csource.addMethod("getBody");
+        msource.setJavadoc("Returns the request field that is bound to the HTTP body, \"*\" for the whole request,\n"
+                + "or an empty string if there is no body.\n");
+        msource.setReturn("String");
+        msource.body().append("return body;\n");
+
+        msource = csource.addMethod("getResponseBody");
+        msource.setJavadoc("Returns the response field that is written as HTTP body, or an empty string for the\n"
+                + "whole response.\n");
+        msource.setReturn("String");
+        msource.body().append("return responseBody;\n");
+
+        msource = csource.addMethod("getParameterNames");
+        msource.setJavadoc("Returns the request fields that are bound to path variables, in path order.\n");
+        msource.setReturn("List<String>");
+        msource.body().append("return List.of(parameterNames);\n");
+
+        msource = csource.addMethod("accepts");
+        msource.setPrivate(true);
+        msource.setReturn("boolean");
+        msource.addArg("String", "verb");
+        msource.addArg("String", "path");
+        msource.addArg("int", "verbStart");
+        msource.body().append("if (!this.verb.equals(verb)) {\n");
+        msource.body().append("    return false;\n");
+        msource.body().append("} else if (customVerb == null) {\n");
+        msource.body().append("    return verbStart == -1;\n");
+        msource.body().append("} else {\n");
+        msource.body().append("    return verbStart != -1 && customVerb.length() == path.length() - verbStart\n");
+        msource.body().append("            && path.startsWith(customVerb, verbStart);\n");
+        msource.body().append("}\n");
+    }
+
+    private static void appendNodeClass(SourceBuilder jsource) {
+        var csource = jsource.addNestedClass("Node");
+        csource.setPrivate(true);
+        csource.setStatic(true);
+        csource.setFinal(true);
+        csource.addField("String[]", "literals");
+        csource.addField("Node[]", "children");
+        csource.addField("Node", "wildcard");
+        csource.addField("Node", "doubleWildcard");
+        csource.addField("Route[]", "routes");
+
+        var ccsource = csource.addConstructor();
+        ccsource.addArg("String[]", "literals");
+        ccsource.addArg("Node[]", "children");
+        ccsource.addArg("Node", "wildcard");
+        ccsource.addArg("Node", "doubleWildcard");
+        ccsource.addArg("Route[]", "routes");
+        ccsource.body().append("this.literals = literals;\n");
+        ccsource.body().append("this.children = children;\n");
+        ccsource.body().append("this.wildcard = wildcard;\n");
+        ccsource.body().append("this.doubleWildcard = doubleWildcard;\n");
+        ccsource.body().append("this.routes = routes;\n");
+    }
+
+    private static void appendMatcherClass(SourceBuilder jsource) {
+        var csource = jsource.addNestedClass("Matcher");
+        csource.setStatic(true);
+        csource.setFinal(true);
+        csource.setJavadoc("Matches requests against the routes. Matching does not allocate, so that an instance can\n"
+                + "be reused for many requests. Instances are not thread-safe.\n");
+        var fsource = csource.addField("int[]", "starts");
+        fsource.setInitializer("new int[MAX_SEGMENTS]");
+        fsource = csource.addField("int[]", "ends");
+        fsource.setInitializer("new int[MAX_SEGMENTS]");
+        for (var name : new String[] { "verb", "path" }) {
+            fsource = csource.addField("String", name);
+            fsource.setFinal(false);
+        }
+        for (var name : new String[] { "end", "verbStart" }) {
+            fsource = csource.addField("int", name);
+            fsource.setFinal(false);
+        }
+        fsource = csource.addField("Route", "route");
+        fsource.setFinal(false);
+
+        var msource = csource.addMethod("match");
+        msource.setJavadoc("Matches an HTTP verb and a request path without query string. Returns the matched\n"
+                + "route, or null if there is none. Literal segments take precedence over variables.\n\n"
+                + "A trailing slash is an empty last segment, which only a ** variable matches. The custom verb\n"
+                + "follows the last colon of the last segment.\n");
+        msource.setReturn("Route");
+        msource.addArg("String", "verb");
+        msource.addArg("String", "path");
+        msource.body().append("this.verb = verb;\n");
+        msource.body().append("this.path = path;\n");
+        msource.body().append("route = null;\n");
+        msource.body().append("if (!path.startsWith(\"/\")) {\n");
+        msource.body().append("    return null;\n");
+        msource.body().append("}\n");
+        msource.body().append("var colon = path.lastIndexOf(':');\n");
+        msource.body().append("if (colon > path.lastIndexOf('/')) {\n");
+        msource.body().append("    end = colon;\n");
+        msource.body().append("    verbStart = colon + 1;\n");
+        msource.body().append("    if (match(ROOT, 1, 0)) {\n");
+        msource.body().append("        return route;\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+        msource.body().append("end = path.length();\n");
+        msource.body().append("verbStart = -1;\n");
+        msource.body().append("return match(ROOT, 1, 0) ? route : null;\n");
+
+        msource = csource.addMethod("getParameter");
+        msource.setJavadoc("Returns the value of a path variable of the last matched route.\n");
+        msource.setReturn("String");
+        msource.addArg("String", "name");
+        msource.body().append("for (int i = 0; i < route.parameterNames.length; i++) {\n");
+        msource.body().append("    if (route.parameterNames[i].equals(name)) {\n");
+        msource.body().append("        var first = route.firstSegments[i];\n");
+        msource.body().append("        var last = route.lastSegments[i];\n");
+        msource.body().append("        return path.substring(starts[first], ends[last]);\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+        msource.body().append("return null;\n");
+
+        msource = csource.addMethod("match");
+        msource.setPrivate(true);
+        msource.setReturn("boolean");
+        msource.addArg("Node", "node");
+        msource.addArg("int", "pos");
+        msource.addArg("int", "depth");
+        msource.body().append("// Past the end when the last segment has been matched, at the end before an empty\n");
+        msource.body().append("// last segment, except for the root path\n");
+        msource.body().append("if (pos > end || pos == end && depth == 0) {\n");
+        msource.body().append("    if (accept(node.routes)) {\n");
+        msource.body().append("        return true;\n");
+        msource.body().append("    }\n");
+        msource.body().append("    // ** also matches zero segments\n");
+        msource.body().append("    if (node.doubleWildcard != null && depth < starts.length) {\n");
+        msource.body().append("        starts[depth] = end;\n");
+        msource.body().append("        ends[depth] = end;\n");
+        msource.body().append("        return accept(node.doubleWildcard.routes);\n");
+        msource.body().append("    }\n");
+        msource.body().append("    return false;\n");
+        msource.body().append("} else if (depth == starts.length) {\n");
+        msource.body().append("    return false;\n");
+        msource.body().append("}\n");
+        msource.body().append("var segmentEnd = path.indexOf('/', pos);\n");
+        msource.body().append("if (segmentEnd == -1 || segmentEnd > end) {\n");
+        msource.body().append("    segmentEnd = end;\n");
+        msource.body().append("}\n");
+        msource.body().append("var length = segmentEnd - pos;\n");
+        msource.body().append("starts[depth] = pos;\n");
+        msource.body().append("ends[depth] = segmentEnd;\n");
+        msource.body().append("for (int i = 0; i < node.literals.length; i++) {\n");
+        msource.body().append("    var literal = node.literals[i];\n");
+        msource.body().append("    if (literal.length() == length && path.startsWith(literal, pos)\n");
+        msource.body().append("            && match(node.children[i], segmentEnd + 1, depth + 1)) {\n");
+        msource.body().append("        return true;\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+        msource.body().append("if (node.wildcard != null && length > 0\n");
+        msource.body().append("        && match(node.wildcard, segmentEnd + 1, depth + 1)) {\n");
+        msource.body().append("    return true;\n");
+        msource.body().append("}\n");
+        msource.body().append("if (node.doubleWildcard != null) {\n");
+        msource.body().append("    ends[depth] = end;\n");
+        msource.body().append("    return accept(node.doubleWildcard.routes);\n");
+        msource.body().append("}\n");
+        msource.body().append("return false;\n");
+
+        msource = csource.addMethod("accept");
+        msource.setPrivate(true);
+        msource.setReturn("boolean");
+        msource.addArg("Route[]", "candidates");
+        msource.body().append("for (var candidate : candidates) {\n");
+        msource.body().append("    if (candidate.accepts(verb, path, verbStart)) {\n");
+        msource.body().append("        route = candidate;\n");
+        msource.body().append("        return true;\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+        msource.body().append("return false;\n");
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static class Route {
+
+        private int methodIndex;
+        private String verb;
+        private String template;
+        private String customVerb;
+        private String body;
+        private String responseBody;
+        private List<String> segments = new ArrayList<>();
+        private List<String> parameterNames = new ArrayList<>();
+        private List<Integer> firstSegments = new ArrayList<>();
+        private List<Integer> lastSegments = new ArrayList<>();
+    }
+
+    private static class TrieNode {
+
+        private Map<String, TrieNode> literals = new TreeMap<>();
+        private TrieNode wildcard;
+        private TrieNode doubleWildcard;
+        private List<Integer> routes = new ArrayList<>();
+    }
+}
@@ -1,14 +1,25 @@
 package org.yamcs.protoc;
 
 import java.beans.Introspector;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
 import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MethodOptions.IdempotencyLevel;
 import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
 import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
 import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
@@ -16,100 +27,354 @@ import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse.File;
 
 public class ServiceGenerator {
 
-    private static Map<String, DescriptorProto> messageTypes = new HashMap<>();
-    private static Map<DescriptorProto, FileDescriptorProto> fileForMessage = new HashMap<>();
-    private static Map<String, String> javaPackages = new HashMap<>();
-
-    private static Map<ServiceDescriptorProto, String> serviceComments = new HashMap<>();
-    private static Map<MethodDescriptorProto, String> methodComments = new HashMap<>();
-
-    private static void scanComments(FileDescriptorProto file) {
-        var services = file.getServiceList();
-
-        for (var location : file.getSourceCodeInfo().getLocationList()) {
-            if (location.hasLeadingComments()) {
-                if (location.getPath(0) == FileDescriptorProto.SERVICE_FIELD_NUMBER) {
-                    var service = services.get(location.getPath(1));
-                    if (location.getPathCount() == 2) {
-                        serviceComments.put(service, location.getLeadingComments());
-                    } else if (location.getPathCount() == 4) {
-                        if (location.getPath(2) == ServiceDescriptorProto.METHOD_FIELD_NUMBER) {
-                            var method = service.getMethod(location.getPath(3));
-                            methodComments.put(method, location.getLeadingComments());
-                        }
-                    }
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Upper bound for the estimated bytecode size of a generated dispatch method, before it is split.
+     */
+    private static final int MAX_DISPATCH_SIZE = 4000;
+
+    /**
+     * Estimated bytecode size of a tableswitch entry, and of a switch without entries but with its default case.
+     */
+    private static final int SWITCH_ENTRY_SIZE = 4;
+    private static final int SWITCH_OVERHEAD = 30;
+
+    /**
+     * Number of messages that flow-controlled streams may buffer, unless set with the "flow_control" parameter.
+     */
+    private static final int DEFAULT_FLOW_BUFFER_SIZE = 128;
+
+    /**
+     * Number of elements of a table that are assigned by a single static helper method.
+     */
+    private static final int TABLE_ELEMENTS_PER_METHOD = 500;
+
+    private final GeneratorOptions options;
+    private final ProtoIndex index;
+    private final GenerationCache cache;
+    private final GenerationReport report;
+
+    public ServiceGenerator(CodeGeneratorRequest request) throws IOException {
+        options = new GeneratorOptions(request.getParameter());
+        if (options.has("report")) {
+            var format = options.get("report");
+            report = new GenerationReport(format.isEmpty() ? "json" : format);
+        } else {
+            report = null;
+        }
+
+        var start = System.nanoTime();
+        index = new ProtoIndex(request);
+        if (report != null) {
+            report.setIndexTime(System.nanoTime() - start, index.getCommentScanTime());
+        }
+
+        if (options.has("registry") && !RegistryGenerator.isValidClassName(options.get("registry"))) {
+            throw new IllegalArgumentException("Invalid registry '" + options.get("registry") + "'");
+        }
+
+        if (options.has("cache_dir")) {
+            cache = new GenerationCache(Path.of(options.get("cache_dir")), GenerationCache.getGeneratorHash(),
+                    request.getParameter());
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * A case of a switch on method index. A null body indicates a case that falls through to the default case.
+     */
+    private static class DispatchCase {
+
+        private int index;
+        private String body;
+        private int size;
+
+        DispatchCase(int index, String body, int size) {
+            this.index = index;
+            this.body = body;
+            this.size = size;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        var daemonDir = System.getenv(GeneratorDaemon.DIR_VARIABLE);
+        if (daemonDir != null && !daemonDir.isEmpty()) {
+            var request = System.in.readAllBytes();
+            if (!GeneratorDaemon.forward(Path.of(daemonDir), request, System.out)) {
+                generate(new ByteArrayInputStream(request), System.out);
+            }
+        } else {
+            generate(System.in, System.out);
+        }
+    }
+
+    /**
+     * Reads a serialized {@link CodeGeneratorRequest}, and writes the serialized {@link CodeGeneratorResponse}.
+     */
+    static void generate(InputStream input, OutputStream output) throws IOException {
+        var start = System.nanoTime();
+        var in = CodedInputStream.newInstance(input, BUFFER_SIZE);
+        var request = CodeGeneratorRequest.parseFrom(in);
+        var parseTime = System.nanoTime() - start;
+
+        var out = CodedOutputStream.newInstance(output, BUFFER_SIZE);
+        var generator = new ServiceGenerator(request);
+        generator.setParseTime(parseTime);
+        generator.generate(out);
+        out.flush();
+    }
+
+    /**
+     * Sets the time it took to parse the request, for inclusion in the generation report.
+     */
+    public void setParseTime(long nanos) {
+        if (report != null) {
+            report.setParseTime(nanos);
+        }
+    }
+
+    /**
+     * Generates output for all requested files, and writes it as a serialized {@link CodeGeneratorResponse}.
+     * <p>
+     * Files, and the services within, are generated in parallel. Each generated file is written as soon as the
+     * preceding ones have been written, so that the response lists files in request order without having to hold all
+     * of them in memory.
+     */
+    public void generate(CodedOutputStream out) throws IOException {
+        var start = System.nanoTime();
+        var maxPending = Math.max(1, 2 * ForkJoinPool.getCommonPoolParallelism());
+        var pending = new ArrayDeque<CompletableFuture<List<File>>>(maxPending);
+        for (var file : index.getFilesToGenerate()) {
+            if (file.getServiceCount() > 0) {
+                if (pending.size() == maxPending) {
+                    writeFiles(out, pending.removeFirst().join());
                 }
+                pending.add(CompletableFuture.supplyAsync(() -> generateFile(file)));
+            }
+        }
+        while (!pending.isEmpty()) {
+            writeFiles(out, pending.removeFirst().join());
+        }
+
+        // The registry lists all services of this run, so it is generated once, after the files
+        if (options.has("registry")) {
+            var registryFile = generateRegistry(options.get("registry"));
+            if (registryFile != null) {
+                writeFiles(out, List.of(registryFile));
             }
         }
+
+        if (cache != null) {
+            try {
+                cache.evict(GenerationCache.MAX_SIZE);
+            } catch (IOException e) {
+                System.err.println("Could not evict from generation cache: " + e);
+            }
+        }
+
+        // Flush before the report is written, so that it includes the time to write out all files
+        var flushStart = System.nanoTime();
+        out.flush();
+        if (report != null) {
+            report.addWriteTime(System.nanoTime() - flushStart);
+            // Files are written while later ones are generated, so generate time is what is left without writes
+            report.setGenerateTime(System.nanoTime() - start - report.getWriteTime());
+            out.writeMessage(CodeGeneratorResponse.FILE_FIELD_NUMBER, report.toFile());
+        }
     }
 
-    public static void main(String[] args) throws IOException {
-        var request = CodeGeneratorRequest.parseFrom(System.in);
-        var responseb = CodeGeneratorResponse.newBuilder();
+    private void writeFiles(CodedOutputStream out, List<File> files) throws IOException {
+        var start = System.nanoTime();
+        for (var file : files) {
+            out.writeMessage(CodeGeneratorResponse.FILE_FIELD_NUMBER, file);
+        }
+        if (report != null) {
+            report.addWriteTime(System.nanoTime() - start);
+        }
+    }
 
-        // Index all messages by fully-qualified protobuf name
-        for (var file : request.getProtoFileList()) {
-            scanComments(file);
+    private List<File> generateFile(FileDescriptorProto file) {
+        String cacheKey = null;
+        if (cache != null) {
+            cacheKey = cache.computeKey(file, index.getFilesByName());
+            var cachedFiles = cache.get(cacheKey);
+            if (cachedFiles != null) {
+                if (report != null) {
+                    report.incrementCachedFiles();
+                }
+                return cachedFiles;
+            }
+        }
 
-            var javaPackage = file.getOptions().getJavaPackage();
-            javaPackages.put(file.getName(), javaPackage);
+        var generatedFiles = IntStream.range(0, file.getServiceCount()).parallel()
+                .mapToObj(i -> generateServiceFiles(file, i))
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
 
-            for (var messageType : file.getMessageTypeList()) {
-                var qname = file.getPackage() + "." + messageType.getName();
-                messageTypes.put(qname, messageType);
-                fileForMessage.put(messageType, file);
+        if (cache != null) {
+            try {
+                cache.put(cacheKey, generatedFiles);
+            } catch (IOException e) {
+                // The cache only saves time on later runs, so this run still succeeds
+                System.err.println("Could not write to generation cache: " + e);
             }
         }
+        return generatedFiles;
+    }
+
+    /**
+     * Generates all files for a single service.
+     */
+    private List<File> generateServiceFiles(FileDescriptorProto file, int serviceIndex) {
+        var start = System.nanoTime();
+        var service = file.getService(serviceIndex);
+        var javaPackage = index.getJavaPackage(file);
 
-        for (var file : request.getProtoFileList()) {
-            for (int i = 0; i < file.getServiceCount(); i++) {
-                responseb.addFile(generateService(file, i));
-                responseb.addFile(generateServiceClient(file, i));
+        var serviceSource = generateService(file, serviceIndex);
+        var clientSource = generateServiceClient(file, serviceIndex);
+
+        var files = new ArrayList<File>();
+        files.add(toFile(javaPackage, "Abstract" + service.getName(), serviceSource));
+        files.add(toFile(javaPackage, service.getName() + "Client", clientSource));
+        if (options.has("metrics")) {
+            var metricsSource = generateServiceMetrics(file, serviceIndex);
+            files.add(toFile(javaPackage, service.getName() + "Metrics", metricsSource));
+        }
+        if (options.has("async_client")) {
+            var asyncClientSource = generateServiceAsyncClient(file, serviceIndex);
+            files.add(toFile(javaPackage, service.getName() + "AsyncClient", asyncClientSource));
+        }
+        if (options.has("json_writers")) {
+            var jsonSource = new JsonWriterGenerator(index, getGeneratedAnnotation()).generate(file, serviceIndex);
+            files.add(toFile(javaPackage, service.getName() + "Json", jsonSource));
+        }
+        if (options.has("batching_client")) {
+            var batchingClientSource = generateServiceBatchingClient(file, serviceIndex);
+            files.add(toFile(javaPackage, service.getName() + "BatchingClient", batchingClientSource));
+        }
+        if (options.has("routes") && service.getMethodList().stream().anyMatch(RouteTableGenerator::hasRoute)) {
+            var routesSource = new RouteTableGenerator(index, getGeneratedAnnotation()).generate(file, serviceIndex);
+            files.add(toFile(javaPackage, service.getName() + "Routes", routesSource));
+        }
+
+        if (report != null) {
+            var generatedBytes = 0L;
+            for (var generatedFile : files) {
+                generatedBytes += generatedFile.getContentBytes().size();
             }
+            report.addService(file.getPackage() + "." + service.getName(), service.getMethodCount(),
+                    generatedBytes, serviceSource.getMaxEstimatedSize(), System.nanoTime() - start);
+        }
+        return files;
+    }
+
+    /**
+     * Generates the registry class, or returns null if there are no services to list.
+     */
+    private File generateRegistry(String className) {
+        var hasServices = index.getFilesToGenerate().stream().anyMatch(file -> file.getServiceCount() > 0);
+        if (!hasServices) {
+            return null;
         }
+        var jsource = new RegistryGenerator(index, getGeneratedAnnotation()).generate(className);
+        var idx = className.lastIndexOf('.');
+        return toFile(className.substring(0, idx), className.substring(idx + 1), jsource);
+    }
 
-        responseb.build().writeTo(System.out);
+    private static File toFile(String javaPackage, String javaName, SourceBuilder jsource) {
+        var filename = javaPackage.isEmpty()
+                ? javaName + ".java"
+                : javaPackage.replace('.', '/') + "/" + javaName + ".java";
+        return File.newBuilder().setName(filename).setContentBytes(jsource.toByteString()).build();
     }
 
-    private static File.Builder generateService(FileDescriptorProto file, int serviceIndex) {
+    private SourceBuilder generateService(FileDescriptorProto file, int serviceIndex) {
         var service = file.getService(serviceIndex);
-        var javaPackage = file.getOptions().getJavaPackage();
+        var javaPackage = index.getJavaPackage(file);
         var javaName = "Abstract" + service.getName();
 
         var jsource = new SourceBuilder(javaName + "<T>");
         jsource.setAbstract(true);
-        jsource.setJavadoc(serviceComments.get(service));
+        jsource.setJavadoc(index.getComment(service));
         jsource.setPackage(javaPackage);
         jsource.setImplements("Api<T>");
-        var className = ServiceGenerator.class.getName();
-        jsource.addAnnotation("@javax.annotation.processing.Generated(value = \"" + className + "\", date = \""
-                + Instant.now() + "\")");
+        jsource.addAnnotation(getGeneratedAnnotation());
         jsource.addAnnotation("@SuppressWarnings(\"unchecked\")");
+        jsource.addImport("java.nio.ByteBuffer");
+        jsource.addImport("com.google.protobuf.ByteString");
+        jsource.addImport("com.google.protobuf.InvalidProtocolBufferException");
         jsource.addImport("com.google.protobuf.Message");
+        jsource.addImport("com.google.protobuf.Parser");
         jsource.addImport("com.google.protobuf.Descriptors.MethodDescriptor");
         jsource.addImport("com.google.protobuf.Descriptors.ServiceDescriptor");
         jsource.addImport("org.yamcs.api.Api");
         jsource.addImport("org.yamcs.api.Observer");
 
+        // Resolve descriptors once, instead of on every call
+        var fsource = jsource.addField("ServiceDescriptor", "DESCRIPTOR");
+        fsource.setPrivate(false);
+        fsource.setStatic(true);
+        fsource.setInitializer(
+                index.getOuterClassname(file) + ".getDescriptor().getServices().get(" + serviceIndex + ")");
+        // Constants are final, so they are assigned in the static initializer, and not in helper methods. Taking them
+        // from an array keeps this at about 10 bytes of bytecode per method, within the 64 KiB limit of a method.
+        fsource = jsource.addField("MethodDescriptor[]", "METHODS");
+        fsource.setStatic(true);
+        fsource.setInitializer("DESCRIPTOR.getMethods().toArray(new MethodDescriptor[0])");
+        for (int i = 0; i < service.getMethodCount(); i++) {
+            fsource = jsource.addField("MethodDescriptor", index.getMethodConstant(service.getMethod(i)));
+            fsource.setPrivate(false);
+            fsource.setStatic(true);
+            fsource.setInitializer("METHODS[" + i + "]");
+        }
+
+        // With table dispatch, prototypes are looked up by method index
+        var tableDispatch = "table".equals(options.get("dispatch"));
+        if (tableDispatch) {
+            var requestPrototypes = new ArrayList<String>();
+            var responsePrototypes = new ArrayList<String>();
+            var requestParsers = new ArrayList<String>();
+            for (var method : service.getMethodList()) {
+                var inputType = index.getMessageType(method.getInputType());
+                var outputType = index.getMessageType(method.getOutputType());
+                requestPrototypes.add(inputType.getName() + ".getDefaultInstance()");
+                responsePrototypes.add(outputType.getName() + ".getDefaultInstance()");
+                requestParsers.add(inputType.getName() + ".parser()");
+            }
+            addTable(jsource, "Message", "REQUEST_PROTOTYPES", "createRequestPrototypes", requestPrototypes);
+            addTable(jsource, "Message", "RESPONSE_PROTOTYPES", "createResponsePrototypes", responsePrototypes);
+            addTable(jsource, "Parser<?>", "REQUEST_PARSERS", "createRequestParsers", requestParsers);
+        }
+
         for (var method : service.getMethodList()) {
             var javaMethodName = Introspector.decapitalize(method.getName());
-            var inputType = messageTypes.get(method.getInputType().substring(1));
-            var outputType = messageTypes.get(method.getOutputType().substring(1));
+            var inputType = index.getMessageType(method.getInputType());
+            var outputType = index.getMessageType(method.getOutputType());
 
-            var inputTypeJavaPackage = getJavaPackage(inputType);
+            var inputTypeJavaPackage = index.getJavaPackage(inputType);
             if (!inputTypeJavaPackage.equals(javaPackage)) {
-                jsource.addImport(getJavaClassname(inputType));
+                jsource.addImport(index.getJavaClassname(inputType));
             }
 
-            var outputTypeJavaPackage = getJavaPackage(outputType);
+            var outputTypeJavaPackage = index.getJavaPackage(outputType);
             if (!outputTypeJavaPackage.equals(javaPackage)) {
-                jsource.addImport(getJavaClassname(outputType));
+                jsource.addImport(index.getJavaClassname(outputType));
             }
 
             var msource = jsource.addMethod(javaMethodName);
-            msource.setJavadoc(methodComments.get(method));
+            msource.setJavadoc(index.getComment(method));
             msource.setAbstract(true);
-            if (method.getClientStreaming()) {
+            if (isFlowControlled(method)) {
+                msource.setReturn("Flow.Publisher<" + outputType.getName() + ">");
+                msource.addArg("T", "ctx");
+                if (method.getClientStreaming()) {
+                    msource.addArg("Flow.Publisher<" + inputType.getName() + ">", "requests");
+                } else {
+                    msource.addArg(inputType.getName(), "request");
+                }
+            } else if (method.getClientStreaming()) {
                 msource.setReturn("Observer<" + inputType.getName() + ">");
                 msource.addArg("T", "ctx");
                 msource.addArg("Observer<" + outputType.getName() + ">", "observer");
@@ -125,8 +390,7 @@ public class ServiceGenerator {
         msource.setReturn("ServiceDescriptor");
         msource.addAnnotation("@Override");
         msource.setFinal(true);
-        msource.body().append("return ").append(getOuterClassname(file))
-                .append(".getDescriptor().getServices().get(").append(serviceIndex).append(");\n");
+        msource.body().append("return DESCRIPTOR;\n");
 
         // Implement "Message getRequestPrototype(MethodDescriptor method);"
         msource = jsource.addMethod("getRequestPrototype");
@@ -134,19 +398,19 @@ public class ServiceGenerator {
         msource.addAnnotation("@Override");
         msource.setFinal(true);
         msource.addArg("MethodDescriptor", "method");
-        msource.body().append("if (method.getService() != getDescriptorForType()) {\n");
-        msource.body().append("    throw new IllegalArgumentException(\"Method not contained by this service.\");\n");
-        msource.body().append("}\n");
-        msource.body().append("switch (method.getIndex()) {\n");
-        for (int i = 0; i < service.getMethodCount(); i++) {
-            var method = service.getMethod(i);
-            var inputType = messageTypes.get(method.getInputType().substring(1));
-            msource.body().append("case ").append(i).append(":\n");
-            msource.body().append("    return ").append(inputType.getName()).append(".getDefaultInstance();\n");
+        if (tableDispatch) {
+            appendServiceCheck(msource);
+            msource.body().append("return REQUEST_PROTOTYPES[method.getIndex()];\n");
+            msource.addEstimatedSize(8);
+        } else {
+            var cases = new ArrayList<DispatchCase>();
+            for (int i = 0; i < service.getMethodCount(); i++) {
+                var method = service.getMethod(i);
+                var inputType = index.getMessageType(method.getInputType());
+                cases.add(new DispatchCase(i, "return " + inputType.getName() + ".getDefaultInstance();", 4));
+            }
+            appendDispatch(jsource, msource, cases);
         }
-        msource.body().append("default:\n");
-        msource.body().append("    throw new IllegalStateException();\n");
-        msource.body().append("}\n");
 
         // Implement "Message getResponsePrototype(MethodDescriptor method);"
         msource = jsource.addMethod("getResponsePrototype");
@@ -154,170 +418,1550 @@ public class ServiceGenerator {
         msource.setFinal(true);
         msource.addAnnotation("@Override");
         msource.addArg("MethodDescriptor", "method");
-        msource.body().append("if (method.getService() != getDescriptorForType()) {\n");
-        msource.body().append("    throw new IllegalArgumentException(\"Method not contained by this service.\");\n");
-        msource.body().append("}\n");
-        msource.body().append("switch (method.getIndex()) {\n");
-        for (int i = 0; i < service.getMethodCount(); i++) {
-            var method = service.getMethod(i);
-            var outputType = messageTypes.get(method.getOutputType().substring(1));
-            msource.body().append("case ").append(i).append(":\n");
-            msource.body().append("    return ").append(outputType.getName()).append(".getDefaultInstance();\n");
+        if (tableDispatch) {
+            appendServiceCheck(msource);
+            msource.body().append("return RESPONSE_PROTOTYPES[method.getIndex()];\n");
+            msource.addEstimatedSize(8);
+        } else {
+            var cases = new ArrayList<DispatchCase>();
+            for (int i = 0; i < service.getMethodCount(); i++) {
+                var method = service.getMethod(i);
+                var outputType = index.getMessageType(method.getOutputType());
+                cases.add(new DispatchCase(i, "return " + outputType.getName() + ".getDefaultInstance();", 4));
+            }
+            appendDispatch(jsource, msource, cases);
         }
-        msource.body().append("default:\n");
-        msource.body().append("    throw new IllegalStateException();\n");
-        msource.body().append("}\n");
 
-        // Implement "void callMethod(MethodDescriptor method, Message request, Observer<Message> observer)"
-        msource = jsource.addMethod("callMethod");
+        // Typed request parsers, so that requests can be decoded without going through a builder
+        msource = jsource.addMethod("getRequestParser");
+        msource.setReturn("Parser<? extends Message>");
         msource.setFinal(true);
-        msource.addAnnotation("@Override");
+        msource.addArg("MethodDescriptor", "method");
+        if (tableDispatch) {
+            appendServiceCheck(msource);
+            msource.body().append("return (Parser<? extends Message>) REQUEST_PARSERS[method.getIndex()];\n");
+            msource.addEstimatedSize(11);
+        } else {
+            var cases = new ArrayList<DispatchCase>();
+            for (int i = 0; i < service.getMethodCount(); i++) {
+                var method = service.getMethod(i);
+                var inputType = index.getMessageType(method.getInputType());
+                cases.add(new DispatchCase(i, "return " + inputType.getName() + ".parser();", 4));
+            }
+            appendDispatch(jsource, msource, cases);
+        }
+
+        // Variants of callMethod that parse the request with the typed parser
+        for (var dataType : new String[] { "ByteString", "ByteBuffer" }) {
+            msource = jsource.addMethod("callMethodRaw");
+            msource.setFinal(true);
+            msource.addArg("MethodDescriptor", "method");
+            msource.addArg("T", "ctx");
+            msource.addArg(dataType, "data");
+            msource.addArg("Observer<Message>", "future");
+            msource.addThrows("InvalidProtocolBufferException");
+            msource.body().append("callMethod(method, ctx, getRequestParser(method).parseFrom(data), future);\n");
+        }
+
+        // Methods marked as blocking are offloaded to an executor, by default one that uses virtual threads
+        var hasBlockingMethods = false;
+        for (var method : service.getMethodList()) {
+            hasBlockingMethods |= !method.getClientStreaming() && isBlocking(file, service, method);
+        }
+        if (hasBlockingMethods) {
+            jsource.addImport("java.util.concurrent.Executor");
+            jsource.addImport("java.util.concurrent.Executors");
+
+            fsource = jsource.addField("Executor", "VIRTUAL_THREAD_EXECUTOR");
+            fsource.setStatic(true);
+            fsource.setInitializer("Executors.newVirtualThreadPerTaskExecutor()");
+
+            msource = jsource.addMethod("getBlockingExecutor");
+            msource.setJavadoc("Returns the executor on which calls to blocking methods are run. By default, each\n"
+                    + "call runs on a new virtual thread.\n");
+            msource.setProtected(true);
+            msource.setReturn("Executor");
+            msource.body().append("return VIRTUAL_THREAD_EXECUTOR;\n");
+        }
+
+        // With flow control, streamed responses are only produced on demand
+        var hasFlowControlledMethods = false;
+        for (var method : service.getMethodList()) {
+            hasFlowControlledMethods |= isFlowControlled(method);
+        }
+        if (hasFlowControlledMethods) {
+            appendFlowAdapters(jsource);
+        }
+
+        // Methods with a concurrency limit share a counter of active calls, and reject calls beyond the limit
+        var hasLimitedMethods = false;
+        for (var method : service.getMethodList()) {
+            hasLimitedMethods |= !method.getClientStreaming() && getMaxConcurrency(file, service, method) > 0;
+        }
+        if (hasLimitedMethods) {
+            appendPermits(jsource, service);
+        }
+
+        // With metrics, callMethod tracks the call and delegates to a private dispatch method
+        var metrics = options.has("metrics");
+        var metricsClassName = service.getName() + "Metrics";
+
+        // Implement "void callMethod(MethodDescriptor method, Message request, Observer<Message> observer)"
+        msource = addCallMethod(jsource, metrics);
         msource.addArg("MethodDescriptor", "method");
         msource.addArg("T", "ctx");
         msource.addArg("Message", "request");
         msource.addArg("Observer<Message>", "future");
-        msource.body().append("if (method.getService() != getDescriptorForType()) {\n");
-        msource.body().append("    throw new IllegalArgumentException(\"Method not contained by this service.\");\n");
-        msource.body().append("}\n");
-        msource.body().append("switch (method.getIndex()) {\n");
+        var cases = new ArrayList<DispatchCase>();
         for (int i = 0; i < service.getMethodCount(); i++) {
             var method = service.getMethod(i);
             if (!method.getClientStreaming()) {
                 var javaMethodName = Introspector.decapitalize(method.getName());
-                var inputType = messageTypes.get(method.getInputType().substring(1));
-                var outputType = messageTypes.get(method.getOutputType().substring(1));
+                var inputType = index.getMessageType(method.getInputType());
+                var outputType = index.getMessageType(method.getOutputType());
+                var maxConcurrency = getMaxConcurrency(file, service, method);
+                // Cases share a scope, so name the permit after the method index
+                var observer = maxConcurrency > 0 ? "permit" + i : "future";
                 var callArgs = "ctx, (" + inputType.getName() + ") request";
-                callArgs += ", (Observer<" + outputType.getName() + ">)(Object) future";
-                msource.body().append("case ").append(i).append(":\n");
-                msource.body().append("    ").append(javaMethodName).append("(").append(callArgs).append(");\n");
-                msource.body().append("    return;\n");
+                callArgs += ", (Observer<" + outputType.getName() + ">)(Object) " + observer;
+                var call = javaMethodName + "(" + callArgs + ");";
+                var size = 11;
+                if (isFlowControlled(method)) {
+                    call = javaMethodName + "(ctx, (" + inputType.getName() + ") request).subscribe(\n"
+                            + "        new ObserverSubscriber<Message>(" + observer + ", FLOW_BUFFER_SIZE));";
+                    size = 21;
+                }
+                if (isBlocking(file, service, method)) {
+                    call = "getBlockingExecutor().execute(() -> {\n"
+                            + "    try {\n"
+                            + "        " + call + "\n"
+                            + "    } catch (RuntimeException e) {\n"
+                            + "        " + observer + ".completeExceptionally(e);\n"
+                            + "    }\n"
+                            + "});";
+                    size = 12;
+                }
+                if (maxConcurrency > 0) {
+                    // Release the permit if the call, or handing it to the executor, fails without completing
+                    // the observer
+                    call = "try {\n"
+                            + "    " + call + "\n"
+                            + "} catch (RuntimeException | Error e) {\n"
+                            + "    " + observer + ".release();\n"
+                            + "    throw e;\n"
+                            + "}";
+                    size += 8;
+                }
+                if (maxConcurrency > 0) {
+                    call = "var " + observer + " = acquirePermit(" + i + ", " + maxConcurrency + ", future);\n"
+                            + "if (" + observer + " == null) {\n"
+                            + "    return;\n"
+                            + "}\n"
+                            + call;
+                    size += 12;
+                }
+                cases.add(new DispatchCase(i, call + "\nreturn;", size + 4));
+            } else if (tableDispatch) {
+                cases.add(new DispatchCase(i, null, 0));
             }
         }
-        msource.body().append("default:\n");
-        msource.body().append("    throw new IllegalStateException();\n");
-        msource.body().append("}\n");
+        appendDispatch(jsource, msource, cases);
+        if (metrics) {
+            appendTrackedCallMethod(jsource, msource, metricsClassName);
+        }
 
         // Implement "Observer<Message> callMethod(MethodDescriptor method, Observer<Message> observer)"
-        msource = jsource.addMethod("callMethod");
-        msource.setFinal(true);
-        msource.addAnnotation("@Override");
+        msource = addCallMethod(jsource, metrics);
         msource.setReturn("Observer<Message>");
         msource.addArg("MethodDescriptor", "method");
         msource.addArg("T", "ctx");
         msource.addArg("Observer<Message>", "future");
-        msource.body().append("if (method.getService() != getDescriptorForType()) {\n");
-        msource.body().append("    throw new IllegalArgumentException(\"Method not contained by this service.\");\n");
-        msource.body().append("}\n");
-        msource.body().append("switch (method.getIndex()) {\n");
+        cases = new ArrayList<DispatchCase>();
         for (int i = 0; i < service.getMethodCount(); i++) {
             var method = service.getMethod(i);
-            if (method.getClientStreaming()) {
+            if (method.getClientStreaming() && isFlowControlled(method)) {
+                // Requests are buffered until the handler subscribes and signals demand
+                var javaMethodName = Introspector.decapitalize(method.getName());
+                var inputType = index.getMessageType(method.getInputType());
+                var requests = "requests" + i;
+                var body = "var " + requests + " = new BufferedPublisher<" + inputType.getName()
+                        + ">(FLOW_BUFFER_SIZE, null);\n"
+                        + javaMethodName + "(ctx, " + requests + ").subscribe(\n"
+                        + "        new ObserverSubscriber<Message>(future, FLOW_BUFFER_SIZE));\n"
+                        + "return (Observer<Message>)(Object) " + requests + ";";
+                cases.add(new DispatchCase(i, body, 36));
+            } else if (method.getClientStreaming()) {
                 var javaMethodName = Introspector.decapitalize(method.getName());
-                var outputType = messageTypes.get(method.getOutputType().substring(1));
+                var outputType = index.getMessageType(method.getOutputType());
                 var callArgs = "ctx, (Observer<" + outputType.getName() + ">)(Object) future";
-                msource.body().append("case ").append(i).append(":\n");
-                msource.body().append("    return (Observer<Message>)(Object) ").append(javaMethodName).append("(")
-                        .append(callArgs).append(");\n");
+                cases.add(new DispatchCase(i, "return (Observer<Message>)(Object) " + javaMethodName + "("
+                        + callArgs + ");", 13));
+            } else if (tableDispatch) {
+                cases.add(new DispatchCase(i, null, 0));
             }
         }
-        msource.body().append("default:\n");
-        msource.body().append("    throw new IllegalStateException();\n");
+        appendDispatch(jsource, msource, cases);
+        if (metrics) {
+            appendTrackedCallMethod(jsource, msource, metricsClassName);
+        }
+
+        return jsource;
+    }
+
+    /**
+     * Returns whether a method is listed by a "blocking" parameter, by its fully-qualified name.
+     */
+    private boolean isBlocking(FileDescriptorProto file, ServiceDescriptorProto service,
+            MethodDescriptorProto method) {
+        var blockingMethods = options.getAll("blocking");
+        if (blockingMethods.isEmpty()) {
+            return false;
+        }
+        var serviceName = file.getPackage().isEmpty() ? service.getName() : file.getPackage() + "." + service.getName();
+        return blockingMethods.contains(serviceName + "." + method.getName());
+    }
+
+    /**
+     * Returns whether a method streams its responses with flow control, as requested with the "flow_control"
+     * parameter.
+     */
+    private boolean isFlowControlled(MethodDescriptorProto method) {
+        return method.getServerStreaming() && options.has("flow_control");
+    }
+
+    /**
+     * Returns the number of messages that flow-controlled streams may buffer, as set with the "flow_control"
+     * parameter.
+     */
+    private int getFlowBufferSize() {
+        var value = options.get("flow_control");
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_FLOW_BUFFER_SIZE;
+        }
+        try {
+            var bufferSize = Integer.parseInt(value);
+            if (bufferSize > 0) {
+                return bufferSize;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        throw new IllegalArgumentException("Invalid flow_control '" + value + "'");
+    }
+
+    /**
+     * Adds the classes that adapt between {@link java.util.concurrent.Flow} streams and observers, for use by
+     * flow-controlled methods of the service and its client.
+     */
+    private void appendFlowAdapters(SourceBuilder jsource) {
+        jsource.addImport("java.util.ArrayDeque");
+        jsource.addImport("java.util.concurrent.Flow");
+        jsource.addImport("java.util.function.Consumer");
+
+        var fsource = jsource.addField("int", "FLOW_BUFFER_SIZE");
+        fsource.setPrivate(false);
+        fsource.setStatic(true);
+        fsource.setInitializer(String.valueOf(getFlowBufferSize()));
+
+        // Subscribes to a publisher, and forwards to an observer
+        var csource = jsource.addNestedClass("ObserverSubscriber<M>");
+        csource.setStatic(true);
+        csource.setFinal(true);
+        csource.setImplements("Flow.Subscriber<M>");
+        csource.setJavadoc("Subscribes to a publisher on behalf of an observer. Messages are requested in batches, so\n"
+                + "that at most the given number of messages are outstanding.\n");
+        csource.addField("Observer<? super M>", "observer");
+        csource.addField("int", "batchSize");
+        fsource = csource.addField("Flow.Subscription", "subscription");
+        fsource.setFinal(false);
+        fsource = csource.addField("int", "received");
+        fsource.setFinal(false);
+
+        var ccsource = csource.addConstructor();
+        ccsource.addArg("Observer<? super M>", "observer");
+        ccsource.addArg("int", "bufferSize");
+        ccsource.body().append("this.observer = observer;\n");
+        ccsource.body().append("batchSize = Math.max(1, bufferSize / 2);\n");
+
+        var msource = csource.addMethod("onSubscribe");
+        msource.addAnnotation("@Override");
+        msource.addArg("Flow.Subscription", "subscription");
+        msource.body().append("this.subscription = subscription;\n");
+        msource.body().append("subscription.request(2 * batchSize);\n");
+
+        msource = csource.addMethod("onNext");
+        msource.addAnnotation("@Override");
+        msource.addArg("M", "message");
+        msource.body().append("observer.next(message);\n");
+        msource.body().append("if (++received == batchSize) {\n");
+        msource.body().append("    received = 0;\n");
+        msource.body().append("    subscription.request(batchSize);\n");
+        msource.body().append("}\n");
+
+        msource = csource.addMethod("onError");
+        msource.addAnnotation("@Override");
+        msource.addArg("Throwable", "t");
+        msource.body().append("observer.completeExceptionally(t);\n");
+
+        msource = csource.addMethod("onComplete");
+        msource.addAnnotation("@Override");
+        msource.body().append("observer.complete();\n");
+
+        // Observes pushed messages, and publishes them to a single subscriber according to its demand
+        csource = jsource.addNestedClass("BufferedPublisher<M>");
+        csource.setStatic(true);
+        csource.setFinal(true);
+        csource.setImplements("Flow.Publisher<M>, Flow.Subscription, Observer<M>");
+        csource.setJavadoc("Publishes observed messages to a single subscriber, according to its demand. Messages\n"
+                + "are buffered while there is no demand. If the buffer is full, the stream fails instead\n"
+                + "of growing without bound.\n\n"
+                + "The optional start action is run on subscription, with this publisher as observer.\n");
+        csource.addField("int", "bufferSize");
+        csource.addField("Consumer<Observer<M>>", "start");
+        fsource = csource.addField("ArrayDeque<M>", "buffer");
+        fsource.setInitializer("new ArrayDeque<>()");
+        fsource = csource.addField("Flow.Subscriber<? super M>", "subscriber");
+        fsource.setFinal(false);
+        fsource = csource.addField("long", "demand");
+        fsource.setFinal(false);
+        fsource = csource.addField("boolean", "completed");
+        fsource.setFinal(false);
+        fsource = csource.addField("Throwable", "error");
+        fsource.setFinal(false);
+        fsource = csource.addField("boolean", "cancelled");
+        fsource.setFinal(false);
+        fsource = csource.addField("boolean", "draining");
+        fsource.setFinal(false);
+
+        ccsource = csource.addConstructor();
+        ccsource.addArg("int", "bufferSize");
+        ccsource.addArg("Consumer<Observer<M>>", "start");
+        ccsource.body().append("this.bufferSize = bufferSize;\n");
+        ccsource.body().append("this.start = start;\n");
+
+        msource = csource.addMethod("subscribe");
+        msource.addAnnotation("@Override");
+        msource.addArg("Flow.Subscriber<? super M>", "subscriber");
+        msource.body().append("synchronized (this) {\n");
+        msource.body().append("    if (this.subscriber != null) {\n");
+        msource.body().append("        throw new IllegalStateException(\"Only one subscriber is supported\");\n");
+        msource.body().append("    }\n");
+        msource.body().append("    this.subscriber = subscriber;\n");
+        msource.body().append("}\n");
+        msource.body().append("subscriber.onSubscribe(this);\n");
+        msource.body().append("if (start != null) {\n");
+        msource.body().append("    start.accept(this);\n");
+        msource.body().append("}\n");
+        msource.body().append("drain();\n");
+
+        msource = csource.addMethod("request");
+        msource.addAnnotation("@Override");
+        msource.addArg("long", "n");
+        msource.body().append("synchronized (this) {\n");
+        msource.body().append("    if (n <= 0) {\n");
+        msource.body().append("        fail(new IllegalArgumentException(\"Requested \" + n + \" messages\"));\n");
+        msource.body().append("    } else {\n");
+        msource.body().append("        demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+        msource.body().append("drain();\n");
+
+        msource = csource.addMethod("cancel");
+        msource.addAnnotation("@Override");
+        msource.body().append("synchronized (this) {\n");
+        msource.body().append("    cancelled = true;\n");
+        msource.body().append("    buffer.clear();\n");
+        msource.body().append("}\n");
+
+        msource = csource.addMethod("next");
+        msource.addAnnotation("@Override");
+        msource.addArg("M", "message");
+        msource.body().append("synchronized (this) {\n");
+        msource.body().append("    if (completed || cancelled) {\n");
+        msource.body().append("        return;\n");
+        msource.body().append("    }\n");
+        msource.body().append("    if (buffer.size() >= bufferSize) {\n");
+        msource.body().append("        fail(new IllegalStateException(\"Subscriber is too slow, more than \"\n");
+        msource.body().append("                + bufferSize + \" messages are buffered\"));\n");
+        msource.body().append("    } else {\n");
+        msource.body().append("        buffer.add(message);\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+        msource.body().append("drain();\n");
+
+        msource = csource.addMethod("completeExceptionally");
+        msource.addAnnotation("@Override");
+        msource.addArg("Throwable", "t");
+        msource.body().append("synchronized (this) {\n");
+        msource.body().append("    if (!completed) {\n");
+        msource.body().append("        completed = true;\n");
+        msource.body().append("        error = t;\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+        msource.body().append("drain();\n");
+
+        msource = csource.addMethod("complete");
+        msource.addAnnotation("@Override");
+        msource.body().append("synchronized (this) {\n");
+        msource.body().append("    completed = true;\n");
+        msource.body().append("}\n");
+        msource.body().append("drain();\n");
+
+        msource = csource.addMethod("fail");
+        msource.setJavadoc("Fails the stream, discarding any buffered messages. This also replaces a normal\n"
+                + "completion that has not been delivered yet. Must hold the lock.\n");
+        msource.setPrivate(true);
+        msource.addArg("Throwable", "t");
+        msource.body().append("buffer.clear();\n");
+        msource.body().append("if (error == null && !cancelled) {\n");
+        msource.body().append("    completed = true;\n");
+        msource.body().append("    error = t;\n");
+        msource.body().append("}\n");
+
+        // Signals are delivered outside of the lock, and by one thread at a time
+        msource = csource.addMethod("drain");
+        msource.setPrivate(true);
+        msource.body().append("synchronized (this) {\n");
+        msource.body().append("    if (draining || subscriber == null) {\n");
+        msource.body().append("        return;\n");
+        msource.body().append("    }\n");
+        msource.body().append("    draining = true;\n");
+        msource.body().append("}\n");
+        msource.body().append("while (true) {\n");
+        msource.body().append("    M message;\n");
+        msource.body().append("    Throwable t;\n");
+        msource.body().append("    synchronized (this) {\n");
+        msource.body().append("        if (cancelled) {\n");
+        msource.body().append("            draining = false;\n");
+        msource.body().append("            return;\n");
+        msource.body().append("        } else if (demand > 0 && !buffer.isEmpty()) {\n");
+        msource.body().append("            message = buffer.poll();\n");
+        msource.body().append("            demand--;\n");
+        msource.body().append("            t = null;\n");
+        msource.body().append("        } else if (completed && buffer.isEmpty()) {\n");
+        msource.body().append("            message = null;\n");
+        msource.body().append("            t = error;\n");
+        msource.body().append("            cancelled = true; // Terminal signals are sent only once\n");
+        msource.body().append("        } else {\n");
+        msource.body().append("            draining = false;\n");
+        msource.body().append("            return;\n");
+        msource.body().append("        }\n");
+        msource.body().append("    }\n");
+        msource.body().append("    if (message != null) {\n");
+        msource.body().append("        subscriber.onNext(message);\n");
+        msource.body().append("    } else if (t != null) {\n");
+        msource.body().append("        subscriber.onError(t);\n");
+        msource.body().append("    } else {\n");
+        msource.body().append("        subscriber.onComplete();\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+    }
+
+    /**
+     * Returns the maximum number of concurrent calls to a method, as set with a "max_concurrency" parameter, or 0 if
+     * calls are not limited.
+     */
+    private int getMaxConcurrency(FileDescriptorProto file, ServiceDescriptorProto service,
+            MethodDescriptorProto method) {
+        var serviceName = file.getPackage().isEmpty() ? service.getName() : file.getPackage() + "." + service.getName();
+        var methodName = serviceName + "." + method.getName();
+        var result = 0;
+        for (var value : options.getAll("max_concurrency")) {
+            var idx = value.lastIndexOf('=');
+            if (idx != -1 && value.substring(0, idx).equals(methodName)) {
+                try {
+                    result = Integer.parseInt(value.substring(idx + 1));
+                } catch (NumberFormatException e) {
+                    result = -1;
+                }
+                if (result <= 0) {
+                    throw new IllegalArgumentException("Invalid max_concurrency '" + value + "'");
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the counter of active calls, and the methods to acquire and release permits.
+     */
+    private static void appendPermits(SourceBuilder jsource, ServiceDescriptorProto service) {
+        jsource.addImport("java.util.concurrent.RejectedExecutionException");
+        jsource.addImport("java.util.concurrent.atomic.AtomicBoolean");
+        jsource.addImport("java.util.concurrent.atomic.AtomicIntegerArray");
+
+        var fsource = jsource.addField("AtomicIntegerArray", "activeCalls");
+        fsource.setInitializer("new AtomicIntegerArray(" + service.getMethodCount() + ")");
+
+        var msource = jsource.addMethod("getActiveCalls");
+        msource.setJavadoc("Returns the number of calls to the given method that hold a permit. This is only\n"
+                + "tracked for methods with a concurrency limit.\n");
+        msource.setFinal(true);
+        msource.setReturn("int");
+        msource.addArg("MethodDescriptor", "method");
+        appendServiceCheck(msource);
+        msource.body().append("return activeCalls.get(method.getIndex());\n");
+
+        msource = jsource.addMethod("acquirePermit");
+        msource.setJavadoc("Acquires a permit for a call, or completes the observer with a\n"
+                + "RejectedExecutionException if the method already has the maximum number of active calls.\n");
+        msource.setPrivate(true);
+        msource.setReturn("PermitObserver");
+        msource.addArg("int", "methodIndex");
+        msource.addArg("int", "maxConcurrency");
+        msource.addArg("Observer<Message>", "observer");
+        msource.body().append("if (activeCalls.incrementAndGet(methodIndex) > maxConcurrency) {\n");
+        msource.body().append("    activeCalls.decrementAndGet(methodIndex);\n");
+        msource.body().append("    var method = DESCRIPTOR.getMethods().get(methodIndex);\n");
+        msource.body().append("    observer.completeExceptionally(new RejectedExecutionException(\n");
+        msource.body().append("            \"Too many concurrent calls to \" + method.getFullName()));\n");
+        msource.body().append("    return null;\n");
+        msource.body().append("}\n");
+        msource.body().append("return new PermitObserver(methodIndex, observer);\n");
+
+        var csource = jsource.addNestedClass("PermitObserver");
+        csource.setPrivate(true);
+        csource.setFinal(true);
+        csource.setImplements("Observer<Message>");
+        csource.setJavadoc("Forwards to another observer, and releases the permit of the call on completion.\n");
+        csource.addField("int", "methodIndex");
+        csource.addField("Observer<Message>", "delegate");
+        fsource = csource.addField("AtomicBoolean", "released");
+        fsource.setInitializer("new AtomicBoolean()");
+
+        var ccsource = csource.addConstructor();
+        ccsource.addArg("int", "methodIndex");
+        ccsource.addArg("Observer<Message>", "delegate");
+        ccsource.body().append("this.methodIndex = methodIndex;\n");
+        ccsource.body().append("this.delegate = delegate;\n");
+
+        msource = csource.addMethod("next");
+        msource.addAnnotation("@Override");
+        msource.addArg("Message", "message");
+        msource.body().append("delegate.next(message);\n");
+
+        msource = csource.addMethod("completeExceptionally");
+        msource.addAnnotation("@Override");
+        msource.addArg("Throwable", "t");
+        msource.body().append("release();\n");
+        msource.body().append("delegate.completeExceptionally(t);\n");
+
+        msource = csource.addMethod("complete");
+        msource.addAnnotation("@Override");
+        msource.body().append("release();\n");
+        msource.body().append("delegate.complete();\n");
+
+        msource = csource.addMethod("release");
+        msource.body().append("// Observers may be completed concurrently, for example on cancellation\n");
+        msource.body().append("if (released.compareAndSet(false, true)) {\n");
+        msource.body().append("    activeCalls.decrementAndGet(methodIndex);\n");
+        msource.body().append("}\n");
+    }
+
+    private static SourceBuilder.MethodBuilder addCallMethod(SourceBuilder jsource, boolean metrics) {
+        if (metrics) {
+            var msource = jsource.addMethod("dispatch");
+            msource.setPrivate(true);
+            msource.setFinal(true);
+            return msource;
+        } else {
+            var msource = jsource.addMethod("callMethod");
+            msource.setFinal(true);
+            msource.addAnnotation("@Override");
+            return msource;
+        }
+    }
+
+    /**
+     * Implements callMethod by tracking the call, and delegating to the given dispatch method.
+     */
+    private static void appendTrackedCallMethod(SourceBuilder jsource, SourceBuilder.MethodBuilder dispatchSource,
+            String metricsClassName) {
+        var msource = jsource.addMethod("callMethod");
+        msource.setFinal(true);
+        msource.addAnnotation("@Override");
+        msource.setReturn(dispatchSource.getReturn());
+        var args = new StringBuilder();
+        for (int i = 0; i < dispatchSource.getArgNames().size(); i++) {
+            var argName = dispatchSource.getArgNames().get(i);
+            msource.addArg(dispatchSource.getArgTypes().get(i), argName);
+            args.append(i == 0 ? "" : ", ").append(argName.equals("future") ? "observer" : argName);
+        }
+        appendServiceCheck(msource);
+        msource.body().append("var observer = ").append(metricsClassName)
+                .append(".track(method.getIndex(), future);\n");
+        msource.body().append("try {\n");
+        var returns = !dispatchSource.getReturn().equals("void");
+        msource.body().append("    ").append(returns ? "return " : "").append(dispatchSource.getName())
+                .append("(").append(args).append(");\n");
+        msource.body().append("} catch (RuntimeException | Error e) {\n");
+        msource.body().append("    observer.fail();\n");
+        msource.body().append("    throw e;\n");
         msource.body().append("}\n");
+        msource.addEstimatedSize(40);
+    }
+
+    /**
+     * Generates a class with static call metrics for each method of a service. Generated services update these when
+     * the "metrics" parameter is set.
+     */
+    private SourceBuilder generateServiceMetrics(FileDescriptorProto file, int serviceIndex) {
+        var service = file.getService(serviceIndex);
+        var javaPackage = index.getJavaPackage(file);
+        var javaName = service.getName() + "Metrics";
+
+        var jsource = new SourceBuilder(javaName);
+        jsource.setFinal(true);
+        jsource.setJavadoc("Call metrics of " + service.getName() + ", collected by Abstract" + service.getName()
+                + ".\n");
+        jsource.setPackage(javaPackage);
+        jsource.addAnnotation(getGeneratedAnnotation());
+        jsource.addImport("java.util.concurrent.atomic.AtomicBoolean");
+        jsource.addImport("java.util.concurrent.atomic.LongAdder");
+        jsource.addImport("com.google.protobuf.Message");
+        jsource.addImport("com.google.protobuf.Descriptors.MethodDescriptor");
+        jsource.addImport("org.yamcs.api.Observer");
+
+        var fsource = jsource.addField("int", "LATENCY_BUCKETS");
+        fsource.setStatic(true);
+        fsource.setInitializer("32");
+        for (var name : new String[] { "CALLS", "ERRORS", "IN_FLIGHT" }) {
+            fsource = jsource.addField("LongAdder[]", name);
+            fsource.setStatic(true);
+            fsource.setInitializer("newCounters(" + service.getMethodCount() + ")");
+        }
+        fsource = jsource.addField("LongAdder[]", "LATENCIES");
+        fsource.setStatic(true);
+        fsource.setInitializer("newCounters(" + service.getMethodCount() + " * LATENCY_BUCKETS)");
+
+        var msource = jsource.addMethod("getCallCount");
+        msource.setJavadoc("Returns the number of calls to the given method.\n");
+        msource.setStatic(true);
+        msource.setReturn("long");
+        msource.addArg("MethodDescriptor", "method");
+        msource.body().append("return CALLS[getIndex(method)].sum();\n");
+
+        msource = jsource.addMethod("getErrorCount");
+        msource.setJavadoc("Returns the number of calls to the given method that completed with an error.\n");
+        msource.setStatic(true);
+        msource.setReturn("long");
+        msource.addArg("MethodDescriptor", "method");
+        msource.body().append("return ERRORS[getIndex(method)].sum();\n");
+
+        msource = jsource.addMethod("getInFlightCount");
+        msource.setJavadoc("Returns the number of calls to the given method that have not yet completed.\n");
+        msource.setStatic(true);
+        msource.setReturn("long");
+        msource.addArg("MethodDescriptor", "method");
+        msource.body().append("return IN_FLIGHT[getIndex(method)].sum();\n");
+
+        msource = jsource.addMethod("getLatencyHistogram");
+        msource.setJavadoc("Returns the latency histogram of completed calls to the given method.\n\n"
+                + "Bucket 0 counts calls that took less than 1 microsecond, bucket i counts calls that took\n"
+                + "at least 2^(i-1) and less than 2^i microseconds. The last bucket also counts slower calls.\n");
+        msource.setStatic(true);
+        msource.setReturn("long[]");
+        msource.addArg("MethodDescriptor", "method");
+        msource.body().append("var offset = getIndex(method) * LATENCY_BUCKETS;\n");
+        msource.body().append("var histogram = new long[LATENCY_BUCKETS];\n");
+        msource.body().append("for (int i = 0; i < LATENCY_BUCKETS; i++) {\n");
+        msource.body().append("    histogram[i] = LATENCIES[offset + i].sum();\n");
+        msource.body().append("}\n");
+        msource.body().append("return histogram;\n");
+
+        msource = jsource.addMethod("track");
+        msource.setJavadoc("Records the start of a call, and returns an observer that records its completion.\n");
+        msource.setStatic(true);
+        msource.setReturn("TrackingObserver");
+        msource.addArg("int", "methodIndex");
+        msource.addArg("Observer<Message>", "observer");
+        msource.body().append("CALLS[methodIndex].increment();\n");
+        msource.body().append("IN_FLIGHT[methodIndex].increment();\n");
+        msource.body().append("return new TrackingObserver(methodIndex, observer);\n");
+
+        msource = jsource.addMethod("getIndex");
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.setReturn("int");
+        msource.addArg("MethodDescriptor", "method");
+        msource.body().append("if (method.getService() != Abstract").append(service.getName())
+                .append(".DESCRIPTOR) {\n");
+        msource.body().append("    throw new IllegalArgumentException(\"Method not contained by this service.\");\n");
+        msource.body().append("}\n");
+        msource.body().append("return method.getIndex();\n");
+
+        msource = jsource.addMethod("newCounters");
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.setReturn("LongAdder[]");
+        msource.addArg("int", "n");
+        msource.body().append("var counters = new LongAdder[n];\n");
+        msource.body().append("for (int i = 0; i < n; i++) {\n");
+        msource.body().append("    counters[i] = new LongAdder();\n");
+        msource.body().append("}\n");
+        msource.body().append("return counters;\n");
+
+        var csource = jsource.addNestedClass("TrackingObserver");
+        csource.setStatic(true);
+        csource.setFinal(true);
+        csource.setImplements("Observer<Message>");
+        csource.setJavadoc("Forwards to another observer, and records the outcome and latency of the call on\n"
+                + "completion.\n");
+        csource.addField("int", "methodIndex");
+        csource.addField("Observer<Message>", "delegate");
+        fsource = csource.addField("long", "start");
+        fsource.setInitializer("System.nanoTime()");
+        fsource = csource.addField("AtomicBoolean", "done");
+        fsource.setInitializer("new AtomicBoolean()");
 
-        var filename = javaPackage.replace('.', '/') + "/" + javaName + ".java";
-        return File.newBuilder().setName(filename).setContent(jsource.toString());
+        var ccsource = csource.addConstructor();
+        ccsource.addArg("int", "methodIndex");
+        ccsource.addArg("Observer<Message>", "delegate");
+        ccsource.body().append("this.methodIndex = methodIndex;\n");
+        ccsource.body().append("this.delegate = delegate;\n");
+
+        msource = csource.addMethod("next");
+        msource.addAnnotation("@Override");
+        msource.addArg("Message", "message");
+        msource.body().append("delegate.next(message);\n");
+
+        msource = csource.addMethod("completeExceptionally");
+        msource.addAnnotation("@Override");
+        msource.addArg("Throwable", "t");
+        msource.body().append("fail();\n");
+        msource.body().append("delegate.completeExceptionally(t);\n");
+
+        msource = csource.addMethod("complete");
+        msource.addAnnotation("@Override");
+        msource.body().append("finish(false);\n");
+        msource.body().append("delegate.complete();\n");
+
+        msource = csource.addMethod("fail");
+        msource.setJavadoc("Records a failed call. This may also be used when the call failed without completing\n"
+                + "this observer.\n");
+        msource.body().append("finish(true);\n");
+
+        msource = csource.addMethod("finish");
+        msource.setPrivate(true);
+        msource.addArg("boolean", "error");
+        msource.body().append("if (!done.compareAndSet(false, true)) {\n");
+        msource.body().append("    return; // Already recorded, for example on a call that threw and then completed\n");
+        msource.body().append("}\n");
+        msource.body().append("var micros = (System.nanoTime() - start) / 1000;\n");
+        msource.body().append("var bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), LATENCY_BUCKETS - 1);\n");
+        msource.body().append("LATENCIES[methodIndex * LATENCY_BUCKETS + bucket].increment();\n");
+        msource.body().append("IN_FLIGHT[methodIndex].decrement();\n");
+        msource.body().append("if (error) {\n");
+        msource.body().append("    ERRORS[methodIndex].increment();\n");
+        msource.body().append("}\n");
+
+        return jsource;
     }
 
-    private static File.Builder generateServiceClient(FileDescriptorProto file, int serviceIndex) {
+    private SourceBuilder generateServiceClient(FileDescriptorProto file, int serviceIndex) {
         var service = file.getService(serviceIndex);
-        var javaPackage = file.getOptions().getJavaPackage();
+        var javaPackage = index.getJavaPackage(file);
         var javaName = service.getName() + "Client";
 
         var jsource = new SourceBuilder(javaName);
-        jsource.setJavadoc(serviceComments.get(service));
+        jsource.setJavadoc(index.getComment(service));
         jsource.setPackage(javaPackage);
         jsource.setExtends("Abstract" + service.getName() + "<Void>");
         jsource.addImport("org.yamcs.api.MethodHandler");
         jsource.addImport("org.yamcs.api.Observer");
-        var className = ServiceGenerator.class.getName();
-        jsource.addAnnotation("@javax.annotation.processing.Generated(value = \"" + className + "\", date = \""
-                + Instant.now() + "\")");
+        jsource.addAnnotation(getGeneratedAnnotation());
 
         jsource.addField("MethodHandler", "handler");
 
+        var hasCachedMethods = false;
+        for (var method : service.getMethodList()) {
+            hasCachedMethods |= isCached(method);
+        }
+
         var csource = jsource.addConstructor();
         csource.addArg("MethodHandler", "handler");
-        csource.body().append("this.handler = handler;");
+        if (hasCachedMethods) {
+            csource.body().append("this(handler, 0, 0);");
+            appendResponseCache(jsource, service);
+        } else {
+            csource.body().append("this.handler = handler;");
+        }
 
         for (int i = 0; i < service.getMethodCount(); i++) {
             var method = service.getMethod(i);
             var javaMethodName = Introspector.decapitalize(method.getName());
-            var inputType = messageTypes.get(method.getInputType().substring(1));
-            var outputType = messageTypes.get(method.getOutputType().substring(1));
+            var inputType = index.getMessageType(method.getInputType());
+            var outputType = index.getMessageType(method.getOutputType());
 
-            var inputTypeJavaPackage = getJavaPackage(inputType);
+            var inputTypeJavaPackage = index.getJavaPackage(inputType);
             if (!inputTypeJavaPackage.equals(javaPackage)) {
-                jsource.addImport(getJavaClassname(inputType));
+                jsource.addImport(index.getJavaClassname(inputType));
             }
 
-            var outputTypeJavaPackage = getJavaPackage(outputType);
+            var outputTypeJavaPackage = index.getJavaPackage(outputType);
             if (!outputTypeJavaPackage.equals(javaPackage)) {
-                jsource.addImport(getJavaClassname(outputType));
+                jsource.addImport(index.getJavaClassname(outputType));
             }
 
             var msource = jsource.addMethod(javaMethodName);
-            msource.setJavadoc(methodComments.get(method));
+            msource.setJavadoc(index.getComment(method));
             msource.addAnnotation("@Override");
             msource.setFinal(true);
 
-            if (method.getClientStreaming()) {
+            if (isFlowControlled(method)) {
+                // The call is started when the returned publisher is subscribed to
+                jsource.addImport("java.util.concurrent.Flow");
+                msource.setReturn("Flow.Publisher<" + outputType.getName() + ">");
+                msource.addArg("Void", "ctx");
+                var body = msource.body();
+                body.append("return new BufferedPublisher<").append(outputType.getName())
+                        .append(">(FLOW_BUFFER_SIZE, observer -> {\n");
+                if (method.getClientStreaming()) {
+                    msource.addAnnotation("@SuppressWarnings(\"unchecked\")");
+                    msource.addArg("Flow.Publisher<" + inputType.getName() + ">", "requests");
+                    body.append("    var requestObserver = (Observer<").append(inputType.getName())
+                            .append(">)(Object) handler.streamingCall(\n");
+                    body.append("        ").append(index.getMethodConstant(method)).append(",\n");
+                    body.append("        ").append(inputType.getName()).append(".getDefaultInstance(),\n");
+                    body.append("        ").append(outputType.getName()).append(".getDefaultInstance(),\n");
+                    body.append("        observer);\n");
+                    body.append("    requests.subscribe(\n");
+                    body.append("        new ObserverSubscriber<>(requestObserver, FLOW_BUFFER_SIZE));\n");
+                } else {
+                    msource.addArg(inputType.getName(), "request");
+                    body.append("    handler.call(\n");
+                    body.append("        ").append(index.getMethodConstant(method)).append(",\n");
+                    body.append("        request,\n");
+                    body.append("        ").append(outputType.getName()).append(".getDefaultInstance(),\n");
+                    body.append("        observer);\n");
+                }
+                body.append("});");
+            } else if (method.getClientStreaming()) {
                 msource.addAnnotation("@SuppressWarnings(\"unchecked\")");
                 msource.setReturn("Observer<" + inputType.getName() + ">");
                 msource.addArg("Void", "ctx");
                 msource.addArg("Observer<" + outputType.getName() + ">", "observer");
                 msource.body()
                         .append("return (Observer<" + inputType.getName() + ">)(Object) handler.streamingCall(\n");
-                msource.body().append("    getDescriptorForType().getMethods().get(").append(i).append("),\n");
+                msource.body().append("    ").append(index.getMethodConstant(method)).append(",\n");
                 msource.body().append("    ").append(inputType.getName()).append(".getDefaultInstance(),\n");
                 msource.body().append("    ").append(outputType.getName()).append(".getDefaultInstance(),\n");
                 msource.body().append("    observer);");
+            } else if (isCached(method)) {
+                msource.addAnnotation("@SuppressWarnings(\"unchecked\")");
+                msource.addArg("Void", "ctx");
+                msource.addArg(inputType.getName(), "request");
+                msource.addArg("Observer<" + outputType.getName() + ">", "observer");
+                msource.body().append(javaMethodName)
+                        .append("Cache.call(request, (Observer<Message>)(Object) observer);");
             } else {
                 msource.addArg("Void", "ctx");
                 msource.addArg(inputType.getName(), "request");
                 msource.addArg("Observer<" + outputType.getName() + ">", "observer");
 
                 msource.body().append("handler.call(\n");
-                msource.body().append("    getDescriptorForType().getMethods().get(").append(i).append("),\n");
+                msource.body().append("    ").append(index.getMethodConstant(method)).append(",\n");
                 msource.body().append("    request,\n");
                 msource.body().append("    ").append(outputType.getName()).append(".getDefaultInstance(),\n");
                 msource.body().append("    observer);");
             }
         }
 
-        var filename = javaPackage.replace('.', '/') + "/" + javaName + ".java";
-        return File.newBuilder().setName(filename).setContent(jsource.toString());
+        return jsource;
     }
 
-    private static String getJavaPackage(DescriptorProto messageType) {
-        var file = fileForMessage.get(messageType);
-        if (file.getOptions().getJavaMultipleFiles()) {
-            return file.getOptions().getJavaPackage();
-        } else {
-            var outerClassname = getOuterClassname(file);
-            return file.getOptions().getJavaPackage() + "." + outerClassname;
+    /**
+     * Returns whether client responses of a method may be cached, as requested with the "client_cache" parameter.
+     * This only applies to unary methods that declare to have no side effects.
+     */
+    private boolean isCached(MethodDescriptorProto method) {
+        return options.has("client_cache")
+                && !method.getClientStreaming() && !method.getServerStreaming()
+                && method.getOptions().getIdempotencyLevel() == IdempotencyLevel.NO_SIDE_EFFECTS;
+    }
+
+    /**
+     * Adds a response cache for each cached method to a client, and a constructor that configures them.
+     */
+    private void appendResponseCache(SourceBuilder jsource, ServiceDescriptorProto service) {
+        jsource.addImport("java.util.ArrayList");
+        jsource.addImport("java.util.LinkedHashMap");
+        jsource.addImport("java.util.List");
+        jsource.addImport("java.util.concurrent.atomic.LongAdder");
+        jsource.addImport("com.google.protobuf.ByteString");
+        jsource.addImport("com.google.protobuf.Descriptors.MethodDescriptor");
+        jsource.addImport("com.google.protobuf.Message");
+
+        jsource.addField("long", "cacheTtlNanos");
+        jsource.addField("int", "cacheMaxSize");
+        var fsource = jsource.addField("LongAdder", "cacheHits");
+        fsource.setInitializer("new LongAdder()");
+        fsource = jsource.addField("LongAdder", "cacheMisses");
+        fsource.setInitializer("new LongAdder()");
+        for (var method : service.getMethodList()) {
+            if (isCached(method)) {
+                var outputType = index.getMessageType(method.getOutputType());
+                var javaMethodName = Introspector.decapitalize(method.getName());
+                fsource = jsource.addField("ResponseCache", javaMethodName + "Cache");
+                fsource.setInitializer("new ResponseCache(" + index.getMethodConstant(method) + ", "
+                        + outputType.getName() + ".getDefaultInstance())");
+            }
+        }
+
+        var csource = jsource.addConstructor();
+        csource.addArg("MethodHandler", "handler");
+        csource.addArg("long", "cacheTtlMillis");
+        csource.addArg("int", "cacheMaxSize");
+        csource.body().append("this.handler = handler;\n");
+        csource.body().append("this.cacheTtlNanos = cacheTtlMillis * 1_000_000;\n");
+        csource.body().append("this.cacheMaxSize = cacheMaxSize;\n");
+
+        var msource = jsource.addMethod("getCacheHitCount");
+        msource.setJavadoc("Returns the number of calls that were answered from the cache, or that joined an\n"
+                + "identical call in flight.\n");
+        msource.setReturn("long");
+        msource.body().append("return cacheHits.sum();\n");
+
+        msource = jsource.addMethod("getCacheMissCount");
+        msource.setJavadoc("Returns the number of calls to cached methods that were sent to the handler.\n");
+        msource.setReturn("long");
+        msource.body().append("return cacheMisses.sum();\n");
+
+        var nsource = jsource.addNestedClass("ResponseCache");
+        nsource.setPrivate(true);
+        nsource.setFinal(true);
+        nsource.setJavadoc("Caches responses of one method by request bytes. Entries expire after the configured\n"
+                + "TTL, and the least recently used entries are evicted beyond the configured size.\n"
+                + "Entries of calls in flight collect the observers of identical calls.\n");
+        nsource.addField("MethodDescriptor", "method");
+        nsource.addField("Message", "responsePrototype");
+        fsource = nsource.addField("LinkedHashMap<ByteString, Entry>", "entries");
+        fsource.setInitializer("new LinkedHashMap<>(16, 0.75f, true)");
+
+        var ccsource = nsource.addConstructor();
+        ccsource.addArg("MethodDescriptor", "method");
+        ccsource.addArg("Message", "responsePrototype");
+        ccsource.body().append("this.method = method;\n");
+        ccsource.body().append("this.responsePrototype = responsePrototype;\n");
+
+        msource = nsource.addMethod("call");
+        msource.addArg("Message", "request");
+        msource.addArg("Observer<Message>", "observer");
+        msource.body().append("if (cacheTtlNanos <= 0 || cacheMaxSize <= 0) {\n");
+        msource.body().append("    handler.call(method, request, responsePrototype, observer);\n");
+        msource.body().append("    return;\n");
+        msource.body().append("}\n");
+        msource.body().append("var key = request.toByteString();\n");
+        msource.body().append("Entry entry;\n");
+        msource.body().append("Message response = null;\n");
+        msource.body().append("synchronized (this) {\n");
+        msource.body().append("    entry = entries.get(key);\n");
+        msource.body().append("    if (entry != null && entry.observers != null) {\n");
+        msource.body().append("        entry.observers.add(observer);\n");
+        msource.body().append("        cacheHits.increment();\n");
+        msource.body().append("        return;\n");
+        msource.body().append("    } else if (entry != null && System.nanoTime() - entry.expiry < 0) {\n");
+        msource.body().append("        response = entry.response;\n");
+        msource.body().append("    } else {\n");
+        msource.body().append("        entry = new Entry(key, observer);\n");
+        msource.body().append("        entries.put(key, entry);\n");
+        msource.body().append("        if (entries.size() > cacheMaxSize) {\n");
+        msource.body().append("            var it = entries.values().iterator();\n");
+        msource.body().append("            it.next();\n");
+        msource.body().append("            it.remove();\n");
+        msource.body().append("        }\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+        msource.body().append("if (response != null) {\n");
+        msource.body().append("    cacheHits.increment();\n");
+        msource.body().append("    observer.next(response);\n");
+        msource.body().append("    observer.complete();\n");
+        msource.body().append("} else {\n");
+        msource.body().append("    cacheMisses.increment();\n");
+        msource.body().append("    try {\n");
+        msource.body().append("        handler.call(method, request, responsePrototype, entry);\n");
+        msource.body().append("    } catch (RuntimeException | Error e) {\n");
+        msource.body().append("        // As without cache, the caller gets the exception rather than a callback.\n");
+        msource.body().append("        // Calls that joined in the meantime fail, and the entry is removed.\n");
+        msource.body().append("        synchronized (this) {\n");
+        msource.body().append("            if (entry.observers != null) {\n");
+        msource.body().append("                entry.observers.remove(observer);\n");
+        msource.body().append("            }\n");
+        msource.body().append("        }\n");
+        msource.body().append("        entry.completeExceptionally(e);\n");
+        msource.body().append("        throw e;\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+
+        var esource = nsource.addNestedClass("Entry");
+        esource.setPrivate(true);
+        esource.setFinal(true);
+        esource.setImplements("Observer<Message>");
+        esource.setJavadoc("A cached response, or a call in flight when it has observers.\n");
+        esource.addField("ByteString", "key");
+        fsource = esource.addField("List<Observer<Message>>", "observers");
+        fsource.setFinal(false);
+        fsource = esource.addField("Message", "response");
+        fsource.setFinal(false);
+        fsource = esource.addField("long", "expiry");
+        fsource.setFinal(false);
+
+        ccsource = esource.addConstructor();
+        ccsource.addArg("ByteString", "key");
+        ccsource.addArg("Observer<Message>", "observer");
+        ccsource.body().append("this.key = key;\n");
+        ccsource.body().append("observers = new ArrayList<>(1);\n");
+        ccsource.body().append("observers.add(observer);\n");
+
+        msource = esource.addMethod("next");
+        msource.addAnnotation("@Override");
+        msource.addArg("Message", "message");
+        msource.body().append("response = message;\n");
+
+        msource = esource.addMethod("complete");
+        msource.addAnnotation("@Override");
+        msource.body().append("List<Observer<Message>> waiting;\n");
+        msource.body().append("synchronized (ResponseCache.this) {\n");
+        msource.body().append("    if (observers == null) {\n");
+        msource.body().append("        return; // Already completed\n");
+        msource.body().append("    }\n");
+        msource.body().append("    waiting = observers;\n");
+        msource.body().append("    observers = null;\n");
+        msource.body().append("    expiry = System.nanoTime() + cacheTtlNanos;\n");
+        msource.body().append("    if (response == null) {\n");
+        msource.body().append("        entries.remove(key, this); // Nothing to cache\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+        msource.body().append("for (var observer : waiting) {\n");
+        msource.body().append("    if (response != null) {\n");
+        msource.body().append("        observer.next(response);\n");
+        msource.body().append("    }\n");
+        msource.body().append("    observer.complete();\n");
+        msource.body().append("}\n");
+
+        msource = esource.addMethod("completeExceptionally");
+        msource.addAnnotation("@Override");
+        msource.addArg("Throwable", "t");
+        msource.body().append("List<Observer<Message>> waiting;\n");
+        msource.body().append("synchronized (ResponseCache.this) {\n");
+        msource.body().append("    if (observers == null) {\n");
+        msource.body().append("        return; // Already completed\n");
+        msource.body().append("    }\n");
+        msource.body().append("    waiting = observers;\n");
+        msource.body().append("    observers = null;\n");
+        msource.body().append("    entries.remove(key, this);\n");
+        msource.body().append("}\n");
+        msource.body().append("for (var observer : waiting) {\n");
+        msource.body().append("    observer.completeExceptionally(t);\n");
+        msource.body().append("}\n");
+    }
+
+    /**
+     * Generates a client that returns a {@link java.util.concurrent.CompletableFuture} for each unary method of a
+     * service. Streaming methods are not included.
+     */
+    private SourceBuilder generateServiceAsyncClient(FileDescriptorProto file, int serviceIndex) {
+        var service = file.getService(serviceIndex);
+        var javaPackage = index.getJavaPackage(file);
+        var javaName = service.getName() + "AsyncClient";
+        var serviceClassName = "Abstract" + service.getName();
+
+        var jsource = new SourceBuilder(javaName);
+        jsource.setJavadoc(index.getComment(service));
+        jsource.setPackage(javaPackage);
+        jsource.addImport("java.util.Arrays");
+        jsource.addImport("java.util.Collections");
+        jsource.addImport("java.util.List");
+        jsource.addImport("java.util.concurrent.CompletableFuture");
+        jsource.addImport("java.util.concurrent.atomic.AtomicInteger");
+        jsource.addImport("org.yamcs.api.MethodHandler");
+        jsource.addImport("org.yamcs.api.Observer");
+        jsource.addAnnotation(getGeneratedAnnotation());
+
+        jsource.addField("MethodHandler", "handler");
+
+        var csource = jsource.addConstructor();
+        csource.addArg("MethodHandler", "handler");
+        csource.body().append("this.handler = handler;");
+
+        for (var method : service.getMethodList()) {
+            if (method.getClientStreaming() || method.getServerStreaming()) {
+                continue;
+            }
+            var javaMethodName = Introspector.decapitalize(method.getName());
+            var inputType = index.getMessageType(method.getInputType());
+            var outputType = index.getMessageType(method.getOutputType());
+
+            var inputTypeJavaPackage = index.getJavaPackage(inputType);
+            if (!inputTypeJavaPackage.equals(javaPackage)) {
+                jsource.addImport(index.getJavaClassname(inputType));
+            }
+
+            var outputTypeJavaPackage = index.getJavaPackage(outputType);
+            if (!outputTypeJavaPackage.equals(javaPackage)) {
+                jsource.addImport(index.getJavaClassname(outputType));
+            }
+
+            var methodConstant = serviceClassName + "." + index.getMethodConstant(method);
+
+            var msource = jsource.addMethod(javaMethodName);
+            msource.setJavadoc(index.getComment(method));
+            msource.setReturn("CompletableFuture<" + outputType.getName() + ">");
+            msource.addArg(inputType.getName(), "request");
+            msource.body().append("var observer = new ResponseObserver<").append(outputType.getName())
+                    .append(">();\n");
+            msource.body().append("handler.call(").append(methodConstant).append(", request, ")
+                    .append(outputType.getName()).append(".getDefaultInstance(), observer);\n");
+            msource.body().append("return observer.future;\n");
+
+            msource = jsource.addMethod(javaMethodName + "All");
+            msource.setJavadoc("Calls " + method.getName()
+                    + " for each of the given requests, without waiting for responses\n"
+                    + "in between. The returned future completes with the responses in request order, or\n"
+                    + "exceptionally as soon as one of the calls fails.\n");
+            msource.setReturn("CompletableFuture<List<" + outputType.getName() + ">>");
+            msource.addArg("List<" + inputType.getName() + ">", "requests");
+            msource.body().append("var batch = new Batch<").append(outputType.getName())
+                    .append(">(requests.size());\n");
+            msource.body().append("for (int i = 0; i < requests.size(); i++) {\n");
+            msource.body().append("    handler.call(").append(methodConstant).append(", requests.get(i), ")
+                    .append(outputType.getName()).append(".getDefaultInstance(),\n");
+            msource.body().append("            new BatchObserver<>(batch, i));\n");
+            msource.body().append("}\n");
+            msource.body().append("return batch;\n");
         }
+
+        // The Observer interface and CompletableFuture both declare complete(T), so a future cannot be its own
+        // observer. A batch shares one future between the observers of its calls.
+        var nsource = jsource.addNestedClass("ResponseObserver<M>");
+        nsource.setPrivate(true);
+        nsource.setStatic(true);
+        nsource.setFinal(true);
+        nsource.setImplements("Observer<M>");
+        var fsource = nsource.addField("CompletableFuture<M>", "future");
+        fsource.setInitializer("new CompletableFuture<>()");
+        fsource = nsource.addField("M", "response");
+        fsource.setFinal(false);
+
+        var msource = nsource.addMethod("next");
+        msource.addAnnotation("@Override");
+        msource.addArg("M", "message");
+        msource.body().append("response = message;\n");
+
+        msource = nsource.addMethod("completeExceptionally");
+        msource.addAnnotation("@Override");
+        msource.addArg("Throwable", "t");
+        msource.body().append("future.completeExceptionally(t);\n");
+
+        msource = nsource.addMethod("complete");
+        msource.addAnnotation("@Override");
+        msource.body().append("future.complete(response);\n");
+
+        nsource = jsource.addNestedClass("Batch<M>");
+        nsource.setPrivate(true);
+        nsource.setStatic(true);
+        nsource.setFinal(true);
+        nsource.setExtends("CompletableFuture<List<M>>");
+        nsource.addField("Object[]", "responses");
+        nsource.addField("AtomicInteger", "remaining");
+
+        var ccsource = nsource.addConstructor();
+        ccsource.addArg("int", "size");
+        ccsource.body().append("responses = new Object[size];\n");
+        ccsource.body().append("remaining = new AtomicInteger(size);\n");
+        ccsource.body().append("if (size == 0) {\n");
+        ccsource.body().append("    complete(Collections.emptyList());\n");
+        ccsource.body().append("}\n");
+
+        msource = nsource.addMethod("set");
+        msource.addAnnotation("@SuppressWarnings(\"unchecked\")");
+        msource.addArg("int", "index");
+        msource.addArg("Object", "response");
+        msource.body().append("responses[index] = response;\n");
+        msource.body().append("if (remaining.decrementAndGet() == 0) {\n");
+        msource.body().append("    complete(Collections.unmodifiableList(Arrays.asList((M[]) responses)));\n");
+        msource.body().append("}\n");
+
+        nsource = jsource.addNestedClass("BatchObserver<M>");
+        nsource.setPrivate(true);
+        nsource.setStatic(true);
+        nsource.setFinal(true);
+        nsource.setImplements("Observer<M>");
+        nsource.addField("Batch<M>", "batch");
+        nsource.addField("int", "index");
+        fsource = nsource.addField("M", "response");
+        fsource.setFinal(false);
+
+        ccsource = nsource.addConstructor();
+        ccsource.addArg("Batch<M>", "batch");
+        ccsource.addArg("int", "index");
+        ccsource.body().append("this.batch = batch;\n");
+        ccsource.body().append("this.index = index;\n");
+
+        msource = nsource.addMethod("next");
+        msource.addAnnotation("@Override");
+        msource.addArg("M", "message");
+        msource.body().append("response = message;\n");
+
+        msource = nsource.addMethod("completeExceptionally");
+        msource.addAnnotation("@Override");
+        msource.addArg("Throwable", "t");
+        msource.body().append("batch.completeExceptionally(t);\n");
+
+        msource = nsource.addMethod("complete");
+        msource.addAnnotation("@Override");
+        msource.body().append("batch.set(index, response);\n");
+
+        return jsource;
     }
 
-    private static String getOuterClassname(FileDescriptorProto file) {
-        if (file.getOptions().hasJavaOuterClassname()) {
-            return file.getOptions().getJavaOuterClassname();
+    /**
+     * Generates a client that queues calls to each unary method of a service, and sends them in batches when either
+     * a size or a time threshold is reached. Streaming methods are not included.
+     */
+    private SourceBuilder generateServiceBatchingClient(FileDescriptorProto file, int serviceIndex) {
+        var service = file.getService(serviceIndex);
+        var javaPackage = index.getJavaPackage(file);
+        var javaName = service.getName() + "BatchingClient";
+        var serviceClassName = "Abstract" + service.getName();
+
+        var jsource = new SourceBuilder(javaName);
+        jsource.setJavadoc(index.getComment(service));
+        jsource.setPackage(javaPackage);
+        jsource.addImport("java.util.ArrayList");
+        jsource.addImport("java.util.List");
+        jsource.addImport("java.util.concurrent.ScheduledExecutorService");
+        jsource.addImport("java.util.concurrent.ScheduledFuture");
+        jsource.addImport("java.util.concurrent.TimeUnit");
+        jsource.addImport("com.google.protobuf.Message");
+        jsource.addImport("com.google.protobuf.Descriptors.MethodDescriptor");
+        jsource.addImport("org.yamcs.api.MethodHandler");
+        jsource.addImport("org.yamcs.api.Observer");
+        jsource.addAnnotation(getGeneratedAnnotation());
+
+        jsource.addField("MethodHandler", "handler");
+        jsource.addField("BatchTransport", "transport");
+        jsource.addField("ScheduledExecutorService", "scheduler");
+        jsource.addField("int", "maxBatchSize");
+        jsource.addField("long", "maxDelayMillis");
+
+        var unaryMethods = new ArrayList<MethodDescriptorProto>();
+        for (var method : service.getMethodList()) {
+            if (!method.getClientStreaming() && !method.getServerStreaming()) {
+                unaryMethods.add(method);
+            }
+        }
+
+        for (var method : unaryMethods) {
+            var outputType = index.getMessageType(method.getOutputType());
+            var fsource = jsource.addField("PendingCalls", Introspector.decapitalize(method.getName()) + "Calls");
+            fsource.setInitializer("new PendingCalls(" + serviceClassName + "." + index.getMethodConstant(method) + ", "
+                    + outputType.getName() + ".getDefaultInstance())");
+        }
+
+        var csource = jsource.addConstructor();
+        csource.addArg("MethodHandler", "handler");
+        csource.addArg("BatchTransport", "transport");
+        csource.addArg("ScheduledExecutorService", "scheduler");
+        csource.addArg("int", "maxBatchSize");
+        csource.addArg("long", "maxDelayMillis");
+        csource.body().append("this.handler = handler;\n");
+        csource.body().append("this.transport = transport;\n");
+        csource.body().append("this.scheduler = scheduler;\n");
+        csource.body().append("this.maxBatchSize = maxBatchSize;\n");
+        csource.body().append("this.maxDelayMillis = maxDelayMillis;\n");
+
+        for (var method : unaryMethods) {
+            var javaMethodName = Introspector.decapitalize(method.getName());
+            var inputType = index.getMessageType(method.getInputType());
+            var outputType = index.getMessageType(method.getOutputType());
+
+            var inputTypeJavaPackage = index.getJavaPackage(inputType);
+            if (!inputTypeJavaPackage.equals(javaPackage)) {
+                jsource.addImport(index.getJavaClassname(inputType));
+            }
+
+            var outputTypeJavaPackage = index.getJavaPackage(outputType);
+            if (!outputTypeJavaPackage.equals(javaPackage)) {
+                jsource.addImport(index.getJavaClassname(outputType));
+            }
+
+            var msource = jsource.addMethod(javaMethodName);
+            msource.setJavadoc(index.getComment(method));
+            msource.addArg(inputType.getName(), "request");
+            msource.addArg("Observer<" + outputType.getName() + ">", "observer");
+            msource.body().append(javaMethodName).append("Calls.add(request, observer);\n");
+        }
+
+        var msource = jsource.addMethod("flush");
+        msource.setJavadoc("Sends all queued calls, without waiting for any threshold.\n");
+        for (var method : unaryMethods) {
+            msource.body().append(Introspector.decapitalize(method.getName())).append("Calls.flush();\n");
+        }
+
+        var isource = jsource.addNestedClass("BatchTransport");
+        isource.setInterface(true);
+        isource.setJavadoc("Sends multiple calls to the same method at once. Implementations must complete the\n"
+                + "observer at each index with the outcome of the request at the same index.\n");
+        msource = isource.addMethod("callBatch");
+        msource.setAbstract(true);
+        msource.addArg("MethodDescriptor", "method");
+        msource.addArg("List<Message>", "requests");
+        msource.addArg("Message", "responsePrototype");
+        msource.addArg("List<Observer<? extends Message>>", "observers");
+
+        var nsource = jsource.addNestedClass("PendingCalls");
+        nsource.setPrivate(true);
+        nsource.setFinal(true);
+        nsource.setJavadoc("Calls to one method that have not yet been sent.\n");
+        nsource.addField("MethodDescriptor", "method");
+        nsource.addField("Message", "responsePrototype");
+        var fsource = nsource.addField("List<Message>", "requests");
+        fsource.setFinal(false);
+        fsource.setInitializer("new ArrayList<>()");
+        fsource = nsource.addField("List<Observer<? extends Message>>", "observers");
+        fsource.setFinal(false);
+        fsource.setInitializer("new ArrayList<>()");
+        fsource = nsource.addField("ScheduledFuture<?>", "timer");
+        fsource.setFinal(false);
+
+        var ccsource = nsource.addConstructor();
+        ccsource.addArg("MethodDescriptor", "method");
+        ccsource.addArg("Message", "responsePrototype");
+        ccsource.body().append("this.method = method;\n");
+        ccsource.body().append("this.responsePrototype = responsePrototype;\n");
+
+        // Take full batches while holding the lock, but send them after releasing it
+        msource = nsource.addMethod("add");
+        msource.addArg("Message", "request");
+        msource.addArg("Observer<? extends Message>", "observer");
+        msource.body().append("List<Message> batchRequests;\n");
+        msource.body().append("List<Observer<? extends Message>> batchObservers;\n");
+        msource.body().append("synchronized (this) {\n");
+        msource.body().append("    requests.add(request);\n");
+        msource.body().append("    observers.add(observer);\n");
+        msource.body().append("    if (requests.size() < maxBatchSize) {\n");
+        msource.body().append("        if (requests.size() == 1) {\n");
+        msource.body().append("            var unit = TimeUnit.MILLISECONDS;\n");
+        msource.body().append("            timer = scheduler.schedule(this::flush, maxDelayMillis, unit);\n");
+        msource.body().append("        }\n");
+        msource.body().append("        return;\n");
+        msource.body().append("    }\n");
+        msource.body().append("    batchRequests = requests;\n");
+        msource.body().append("    batchObservers = observers;\n");
+        msource.body().append("    reset();\n");
+        msource.body().append("}\n");
+        msource.body().append("send(batchRequests, batchObservers);\n");
+
+        msource = nsource.addMethod("flush");
+        msource.body().append("List<Message> batchRequests;\n");
+        msource.body().append("List<Observer<? extends Message>> batchObservers;\n");
+        msource.body().append("synchronized (this) {\n");
+        msource.body().append("    if (requests.isEmpty()) {\n");
+        msource.body().append("        return;\n");
+        msource.body().append("    }\n");
+        msource.body().append("    batchRequests = requests;\n");
+        msource.body().append("    batchObservers = observers;\n");
+        msource.body().append("    reset();\n");
+        msource.body().append("}\n");
+        msource.body().append("send(batchRequests, batchObservers);\n");
+
+        msource = nsource.addMethod("reset");
+        msource.setPrivate(true);
+        msource.body().append("requests = new ArrayList<>();\n");
+        msource.body().append("observers = new ArrayList<>();\n");
+        msource.body().append("if (timer != null) {\n");
+        msource.body().append("    timer.cancel(false);\n");
+        msource.body().append("    timer = null;\n");
+        msource.body().append("}\n");
+
+        // Without a batch transport, calls are still queued but sent one by one. Whether sent by the handler or the
+        // transport, a call that throws fails its observers instead of the rest of the batch or the timer thread.
+        msource = nsource.addMethod("send");
+        msource.setPrivate(true);
+        msource.addArg("List<Message>", "batchRequests");
+        msource.addArg("List<Observer<? extends Message>>", "batchObservers");
+        msource.body().append("if (transport == null) {\n");
+        msource.body().append("    for (int i = 0; i < batchRequests.size(); i++) {\n");
+        msource.body().append("        var observer = batchObservers.get(i);\n");
+        msource.body().append("        try {\n");
+        msource.body().append("            handler.call(method, batchRequests.get(i), responsePrototype, observer);\n");
+        msource.body().append("        } catch (RuntimeException e) {\n");
+        msource.body().append("            observer.completeExceptionally(e);\n");
+        msource.body().append("        }\n");
+        msource.body().append("    }\n");
+        msource.body().append("    return;\n");
+        msource.body().append("}\n");
+        msource.body().append("try {\n");
+        msource.body().append("    transport.callBatch(method, batchRequests, responsePrototype, batchObservers);\n");
+        msource.body().append("} catch (RuntimeException e) {\n");
+        msource.body().append("    for (var observer : batchObservers) {\n");
+        msource.body().append("        observer.completeExceptionally(e);\n");
+        msource.body().append("    }\n");
+        msource.body().append("}\n");
+
+        return jsource;
+    }
+
+    /**
+     * Adds a static array field with the given elements, in method index order.
+     * <p>
+     * The array is filled by a static factory method, that delegates to helper methods of
+     * {@link #TABLE_ELEMENTS_PER_METHOD} elements each. With an array initializer, the elements of all tables would
+     * count towards the 64 KiB bytecode limit of the static initializer.
+     */
+    private static void addTable(SourceBuilder jsource, String elementType, String fieldName, String factoryName,
+            List<String> elements) {
+        var fsource = jsource.addField(elementType + "[]", fieldName);
+        fsource.setStatic(true);
+        fsource.setInitializer(factoryName + "()");
+
+        var chunkCount = (elements.size() + TABLE_ELEMENTS_PER_METHOD - 1) / TABLE_ELEMENTS_PER_METHOD;
+        var msource = jsource.addMethod(factoryName);
+        msource.setPrivate(true);
+        msource.setStatic(true);
+        msource.setReturn(elementType + "[]");
+        msource.body().append("var table = new ").append(elementType).append("[").append(elements.size())
+                .append("];\n");
+        for (int i = 0; i < chunkCount; i++) {
+            msource.body().append(factoryName).append(i).append("(table);\n");
+        }
+        msource.body().append("return table;\n");
+
+        for (int i = 0; i < chunkCount; i++) {
+            msource = jsource.addMethod(factoryName + i);
+            msource.setPrivate(true);
+            msource.setStatic(true);
+            msource.addArg(elementType + "[]", "table");
+            var end = Math.min(elements.size(), (i + 1) * TABLE_ELEMENTS_PER_METHOD);
+            for (int j = i * TABLE_ELEMENTS_PER_METHOD; j < end; j++) {
+                msource.body().append("table[").append(j).append("] = ").append(elements.get(j)).append(";\n");
+            }
+        }
+    }
+
+    private static void appendServiceCheck(SourceBuilder.MethodBuilder msource) {
+        msource.body().append("if (method.getService() != DESCRIPTOR) {\n");
+        msource.body().append("    throw new IllegalArgumentException(\"Method not contained by this service.\");\n");
+        msource.body().append("}\n");
+        msource.addEstimatedSize(20);
+    }
+
+    /**
+     * Implements a method that dispatches on the index of its first argument (a MethodDescriptor).
+     * <p>
+     * When the estimated bytecode size of a single switch would exceed {@link #MAX_DISPATCH_SIZE}, the cases are
+     * spread over private helper methods that each cover a range of method indexes. This keeps every method well
+     * below HotSpot's HugeMethodLimit (8000 bytes), above which a method is never JIT-compiled.
+     */
+    private static void appendDispatch(SourceBuilder jsource, SourceBuilder.MethodBuilder msource,
+            List<DispatchCase> cases) {
+        appendServiceCheck(msource);
+
+        // Split in ranges of contiguous method indexes
+        var chunks = new ArrayList<List<DispatchCase>>();
+        var chunk = new ArrayList<DispatchCase>();
+        var chunkSize = SWITCH_OVERHEAD;
+        for (var case_ : cases) {
+            // Also count table entries for skipped indexes
+            var entries = chunk.isEmpty() ? 1 : case_.index - chunk.get(chunk.size() - 1).index;
+            var caseSize = SWITCH_ENTRY_SIZE * entries + case_.size;
+            if (!chunk.isEmpty() && chunkSize + caseSize > MAX_DISPATCH_SIZE) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkSize = SWITCH_OVERHEAD;
+                caseSize = SWITCH_ENTRY_SIZE + case_.size;
+            }
+            chunk.add(case_);
+            chunkSize += caseSize;
+        }
+        chunks.add(chunk);
+
+        if (chunks.size() == 1) {
+            msource.body().append("switch (method.getIndex()) {\n");
+            appendCases(msource, chunk);
+            msource.body().append("}\n");
+            return;
+        }
+
+        var returns = !msource.getReturn().equals("void");
+        var forwardArgs = new StringBuilder("index");
+        for (int i = 1; i < msource.getArgNames().size(); i++) {
+            forwardArgs.append(", ").append(msource.getArgNames().get(i));
+        }
+
+        msource.body().append("var index = method.getIndex();\n");
+        msource.addEstimatedSize(4);
+        for (int i = 0; i < chunks.size(); i++) {
+            var helperName = msource.getName() + i;
+            var helperSource = jsource.addMethod(helperName);
+            helperSource.setPrivate(true);
+            helperSource.setFinal(true);
+            helperSource.setReturn(msource.getReturn());
+            helperSource.addArg("int", "index");
+            for (int j = 1; j < msource.getArgNames().size(); j++) {
+                helperSource.addArg(msource.getArgTypes().get(j), msource.getArgNames().get(j));
+            }
+            helperSource.body().append("switch (index) {\n");
+            appendCases(helperSource, chunks.get(i));
+            helperSource.body().append("}\n");
+
+            if (i == chunks.size() - 1) {
+                msource.body().append("} else {\n");
+            } else {
+                var nextChunk = chunks.get(i + 1);
+                msource.body().append(i == 0 ? "if" : "} else if").append(" (index < ")
+                        .append(nextChunk.get(0).index).append(") {\n");
+            }
+            msource.body().append("    ").append(returns ? "return " : "").append(helperName).append("(")
+                    .append(forwardArgs).append(");\n");
+            msource.addEstimatedSize(20);
+        }
+        msource.body().append("}\n");
+    }
+
+    private static void appendCases(SourceBuilder.MethodBuilder msource, List<DispatchCase> cases) {
+        msource.addEstimatedSize(SWITCH_OVERHEAD);
+        if (!cases.isEmpty()) {
+            var span = cases.get(cases.size() - 1).index - cases.get(0).index + 1;
+            msource.addEstimatedSize(SWITCH_ENTRY_SIZE * span);
+        }
+
+        // Label-only cases fall through to the default case
+        for (var case_ : cases) {
+            if (case_.body != null) {
+                msource.body().append("case ").append(case_.index).append(":\n");
+                for (var line : case_.body.split("\n")) {
+                    msource.body().append("    ").append(line).append("\n");
+                }
+                msource.addEstimatedSize(case_.size);
+            }
+        }
+        for (var case_ : cases) {
+            if (case_.body == null) {
+                msource.body().append("case ").append(case_.index).append(":\n");
+            }
+        }
+        msource.body().append("default:\n");
+        msource.body().append("    throw new IllegalStateException();\n");
+    }
+
+    /**
+     * Returns the {@code @Generated} annotation for generated classes. The date is only included when requested with
+     * the "timestamp" parameter, so that by default output does not change from one run to the next.
+     */
+    private String getGeneratedAnnotation() {
+        var className = ServiceGenerator.class.getName();
+        if (options.has("timestamp")) {
+            return "@javax.annotation.processing.Generated(value = \"" + className + "\", date = \""
+                    + Instant.now() + "\")";
         } else {
-            var name = new java.io.File(file.getName()).toPath().getFileName().toString().replace(".proto", "");
-            return name.substring(0, 1).toUpperCase() + name.substring(1);
+            return "@javax.annotation.processing.Generated(\"" + className + "\")";
         }
     }
 
-    private static String getJavaClassname(DescriptorProto messageType) {
-        return getJavaPackage(messageType) + "." + messageType.getName();
+    static String getVersion() {
+        var version = ServiceGenerator.class.getPackage().getImplementationVersion();
+        return (version != null) ? version : "dev";
     }
 }
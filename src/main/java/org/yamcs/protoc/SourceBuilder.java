@@ -1,25 +1,35 @@
 package org.yamcs.protoc;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import com.google.protobuf.ByteString;
+
 public class SourceBuilder {
 
     private String package_;
     private Set<String> imports = new HashSet<>();
     private List<String> annotations = new ArrayList<>();
+    private boolean private_;
+    private boolean static_;
     private boolean abstract_;
+    private boolean final_;
+    private boolean interface_;
     private String javadoc;
     private String class_;
     private String extends_;
     private String implements_;
-    private List<String> fieldTypes = new ArrayList<>();
-    private List<String> fieldNames = new ArrayList<>();
+    private List<FieldBuilder> fields = new ArrayList<>();
     private List<ConstructorBuilder> constructors = new ArrayList<>();
     private List<MethodBuilder> methods = new ArrayList<>();
+    private List<SourceBuilder> nestedClasses = new ArrayList<>();
 
     public SourceBuilder(String class_) {
         this.class_ = class_;
@@ -45,6 +55,32 @@ public class SourceBuilder {
         this.abstract_ = abstract_;
     }
 
+    public void setFinal(boolean final_) {
+        this.final_ = final_;
+    }
+
+    /**
+     * Whether this is an interface instead of a class. Abstract methods of an interface are written without
+     * modifiers.
+     */
+    public void setInterface(boolean interface_) {
+        this.interface_ = interface_;
+    }
+
+    /**
+     * Whether this class is private. This only applies to nested classes.
+     */
+    public void setPrivate(boolean private_) {
+        this.private_ = private_;
+    }
+
+    /**
+     * Whether this class is static. This only applies to nested classes.
+     */
+    public void setStatic(boolean static_) {
+        this.static_ = static_;
+    }
+
     public void setExtends(String extends_) {
         this.extends_ = extends_;
     }
@@ -57,9 +93,10 @@ public class SourceBuilder {
         imports.add(import_);
     }
 
-    public void addField(String type, String name) {
-        fieldTypes.add(type);
-        fieldNames.add(name);
+    public FieldBuilder addField(String type, String name) {
+        var field = new FieldBuilder(type, name);
+        fields.add(field);
+        return field;
     }
 
     public ConstructorBuilder addConstructor() {
@@ -74,6 +111,63 @@ public class SourceBuilder {
         return method;
     }
 
+    /**
+     * Adds a nested class. Package and imports of the returned builder are ignored, any imports should be added to
+     * the outer class instead.
+     */
+    public SourceBuilder addNestedClass(String class_) {
+        var nestedClass = new SourceBuilder(class_);
+        nestedClasses.add(nestedClass);
+        return nestedClass;
+    }
+
+    /**
+     * Returns the largest estimated bytecode size of the methods added to this class.
+     *
+     * @see MethodBuilder#addEstimatedSize(int)
+     */
+    public int getMaxEstimatedSize() {
+        var max = 0;
+        for (var method : methods) {
+            max = Math.max(max, method.estimatedSize);
+        }
+        return max;
+    }
+
+    public static class FieldBuilder {
+
+        private String type;
+        private String name;
+        private boolean private_ = true;
+        private boolean static_;
+        private boolean final_ = true;
+        private String initializer;
+
+        public FieldBuilder(String type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+
+        /**
+         * Whether this field is private. If not, the field is package-private.
+         */
+        public void setPrivate(boolean private_) {
+            this.private_ = private_;
+        }
+
+        public void setStatic(boolean static_) {
+            this.static_ = static_;
+        }
+
+        public void setFinal(boolean final_) {
+            this.final_ = final_;
+        }
+
+        public void setInitializer(String initializer) {
+            this.initializer = initializer;
+        }
+    }
+
     public static class ConstructorBuilder {
 
         private List<String> argTypes = new ArrayList<>();
@@ -94,13 +188,18 @@ public class SourceBuilder {
 
         private String return_ = "void";
         private String name;
+        private boolean private_;
+        private boolean protected_;
+        private boolean static_;
         private boolean abstract_;
         private boolean final_;
         private String javadoc;
         private List<String> argTypes = new ArrayList<>();
         private List<String> argNames = new ArrayList<>();
         private List<String> annotations = new ArrayList<>();
+        private List<String> exceptions = new ArrayList<>();
         private StringBuilder body = new StringBuilder();
+        private int estimatedSize;
 
         public MethodBuilder(String name) {
             this.name = name;
@@ -110,6 +209,26 @@ public class SourceBuilder {
             this.return_ = return_;
         }
 
+        public String getName() {
+            return name;
+        }
+
+        public String getReturn() {
+            return return_;
+        }
+
+        public void setPrivate(boolean private_) {
+            this.private_ = private_;
+        }
+
+        public void setProtected(boolean protected_) {
+            this.protected_ = protected_;
+        }
+
+        public void setStatic(boolean static_) {
+            this.static_ = static_;
+        }
+
         public void setJavadoc(String javadoc) {
             this.javadoc = javadoc;
         }
@@ -127,138 +246,274 @@ public class SourceBuilder {
             argNames.add(name);
         }
 
+        public List<String> getArgTypes() {
+            return argTypes;
+        }
+
+        public List<String> getArgNames() {
+            return argNames;
+        }
+
         public void addAnnotation(String annotation) {
             annotations.add(annotation);
         }
 
+        public void addThrows(String exception) {
+            exceptions.add(exception);
+        }
+
         public StringBuilder body() {
             return body;
         }
+
+        /**
+         * Adds to the estimated bytecode size of the body. This is not used for output, but lets generators keep
+         * track of the size of large methods.
+         */
+        public void addEstimatedSize(int size) {
+            estimatedSize += size;
+        }
+
+        public int getEstimatedSize() {
+            return estimatedSize;
+        }
     }
 
     @Override
     public String toString() {
         var buf = new StringBuilder();
-        buf.append("package ").append(package_).append(";\n\n");
+        try {
+            writeTo(buf);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by StringBuilder
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Returns the UTF-8 encoded source, without first building it as a {@link String}.
+     */
+    public ByteString toByteString() {
+        var out = ByteString.newOutput();
+        try (var writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            writeTo(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by ByteString.Output
+        }
+        return out.toByteString();
+    }
+
+    /**
+     * Writes the source to the given output. Method bodies and Javadoc are indented and escaped while writing, in a
+     * single pass.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        if (!package_.isEmpty()) {
+            out.append("package ").append(package_).append(";\n\n");
+        }
 
         var sortedImports = new ArrayList<>(imports);
         Collections.sort(sortedImports);
         for (var import_ : sortedImports) {
             if (!import_.equals(package_)) {
-                buf.append("import ").append(import_).append(";\n");
+                out.append("import ").append(import_).append(";\n");
             }
         }
-        buf.append("\n");
+        out.append("\n");
 
+        writeClass(out, "");
+    }
+
+    private void writeClass(Appendable out, String indent) throws IOException {
         if (javadoc != null) {
-            buf.append("/**\n");
-            buf.append(generateJavadocBody(javadoc, " * "));
-            buf.append(" */\n");
+            out.append(indent).append("/**\n");
+            writeJavadocBody(out, javadoc, indent + " * ");
+            out.append(indent).append(" */\n");
         }
 
         for (var annotation : annotations) {
-            buf.append(annotation).append("\n");
+            out.append(indent).append(annotation).append("\n");
         }
 
-        var modifiers = "public";
+        out.append(indent).append(private_ ? "private" : "public");
+        if (static_) {
+            out.append(" static");
+        }
         if (abstract_) {
-            modifiers += " abstract";
+            out.append(" abstract");
         }
-
-        buf.append(modifiers).append(" class ").append(class_);
+        if (final_) {
+            out.append(" final");
+        }
+        out.append(interface_ ? " interface " : " class ").append(class_);
         if (extends_ != null) {
-            buf.append(" extends ").append(extends_);
+            out.append(" extends ").append(extends_);
         }
         if (implements_ != null) {
-            buf.append(" implements ").append(implements_);
+            out.append(" implements ").append(implements_);
         }
-        buf.append(" {\n");
-
-        for (int i = 0; i < fieldTypes.size(); i++) {
-            buf.append("\n    private final ").append(fieldTypes.get(i)).append(" ").append(fieldNames.get(i))
-                    .append(";");
+        out.append(" {\n");
+
+        var memberIndent = indent + "    ";
+        var bodyIndent = memberIndent + "    ";
+        for (var field : fields) {
+            out.append("\n").append(memberIndent);
+            if (field.private_) {
+                out.append("private ");
+            }
+            if (field.static_) {
+                out.append("static ");
+            }
+            if (field.final_) {
+                out.append("final ");
+            }
+            out.append(field.type).append(" ").append(field.name);
+            if (field.initializer != null) {
+                out.append(" = ").append(field.initializer);
+            }
+            out.append(";");
         }
-        if (!fieldTypes.isEmpty()) {
-            buf.append("\n");
+        if (!fields.isEmpty()) {
+            out.append("\n");
         }
 
         for (var constructor : constructors) {
-            buf.append("\n");
-            modifiers = "public";
-            buf.append("    ").append(modifiers).append(" ").append(class_);
-            buf.append("(");
-            for (int i = 0; i < constructor.argTypes.size(); i++) {
-                if (i > 0) {
-                    buf.append(", ");
-                }
-                buf.append(constructor.argTypes.get(i)).append(" ").append(constructor.argNames.get(i));
-            }
-            buf.append(") {\n");
-            var lines = constructor.body.toString().trim().split("\n");
-            for (int i = 0; i < lines.length; i++) {
-                buf.append("        ").append(lines[i]).append("\n");
-            }
-            buf.append("    }\n");
+            out.append("\n");
+            out.append(memberIndent).append("public ").append(getSimpleName());
+            writeArgs(out, constructor.argTypes, constructor.argNames);
+            out.append(" {\n");
+            writeBody(out, constructor.body, bodyIndent);
+            out.append(memberIndent).append("}\n");
         }
 
         for (var method : methods) {
-            buf.append("\n");
+            out.append("\n");
             if (method.javadoc != null) {
-                buf.append("    /**\n");
-                buf.append(generateJavadocBody(method.javadoc, "     * "));
-                buf.append("     */\n");
+                out.append(memberIndent).append("/**\n");
+                writeJavadocBody(out, method.javadoc, memberIndent + " * ");
+                out.append(memberIndent).append(" */\n");
             }
             for (var annotation : method.annotations) {
-                buf.append("    ").append(annotation).append("\n");
+                out.append(memberIndent).append(annotation).append("\n");
             }
-            modifiers = "public";
-            if (method.abstract_) {
-                modifiers += " abstract";
+            out.append(memberIndent);
+            if (!interface_ || !method.abstract_) {
+                out.append(method.private_ ? "private" : method.protected_ ? "protected" : "public");
+                if (method.static_) {
+                    out.append(" static");
+                }
+                if (method.abstract_) {
+                    out.append(" abstract");
+                }
+                if (method.final_) {
+                    out.append(" final");
+                }
+                out.append(" ");
             }
-            if (method.final_) {
-                modifiers += " final";
+            out.append(method.return_).append(" ").append(method.name);
+            writeArgs(out, method.argTypes, method.argNames);
+            if (!method.exceptions.isEmpty()) {
+                out.append(" throws ").append(String.join(", ", method.exceptions));
             }
             if (method.abstract_) {
-                buf.append("    ").append(modifiers).append(" ").append(method.return_).append(" ").append(method.name);
-                buf.append("(");
-                for (int i = 0; i < method.argTypes.size(); i++) {
-                    if (i > 0) {
-                        buf.append(", ");
-                    }
-                    buf.append(method.argTypes.get(i)).append(" ").append(method.argNames.get(i));
-                }
-                buf.append(");\n");
+                out.append(";\n");
             } else {
-                buf.append("    ").append(modifiers).append(" ").append(method.return_).append(" ").append(method.name);
-                buf.append("(");
-                for (int i = 0; i < method.argTypes.size(); i++) {
-                    if (i > 0) {
-                        buf.append(", ");
-                    }
-                    buf.append(method.argTypes.get(i)).append(" ").append(method.argNames.get(i));
-                }
-                buf.append(") {\n");
-                var lines = method.body.toString().trim().split("\n");
-                for (int i = 0; i < lines.length; i++) {
-                    buf.append("        ").append(lines[i]).append("\n");
-                }
-                buf.append("    }\n");
+                out.append(" {\n");
+                writeBody(out, method.body, bodyIndent);
+                out.append(memberIndent).append("}\n");
             }
         }
 
-        return buf.append("}\n").toString();
+        for (var nestedClass : nestedClasses) {
+            out.append("\n");
+            nestedClass.writeClass(out, memberIndent);
+        }
+
+        out.append(indent).append("}\n");
+    }
+
+    /**
+     * Returns the class name without type parameters, as used for constructors.
+     */
+    private String getSimpleName() {
+        var idx = class_.indexOf('<');
+        return (idx == -1) ? class_ : class_.substring(0, idx);
+    }
+
+    private static void writeArgs(Appendable out, List<String> argTypes, List<String> argNames) throws IOException {
+        out.append("(");
+        for (int i = 0; i < argTypes.size(); i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(argTypes.get(i)).append(" ").append(argNames.get(i));
+        }
+        out.append(")");
     }
 
-    private static String generateJavadocBody(String raw, String prefix) {
-        var escaped = "<pre>\n" + raw.replace("@", "{@literal @}")
-                .replace("/*", "{@literal /}*")
-                .replace("*/", "*{@literal /}")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;") + "</pre>";
-        var body = new StringBuilder();
-        for (var line : escaped.split("\n")) {
-            body.append(prefix).append(line).append("\n");
-        }
-        return body.toString();
+    /**
+     * Writes a trimmed body, with each line prefixed by the given indent.
+     */
+    private static void writeBody(Appendable out, CharSequence body, String indent) throws IOException {
+        int start = 0;
+        int end = body.length();
+        while (start < end && body.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && body.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        out.append(indent);
+        int lineStart = start;
+        for (int i = start; i < end; i++) {
+            if (body.charAt(i) == '\n') {
+                out.append(body, lineStart, i + 1).append(indent);
+                lineStart = i + 1;
+            }
+        }
+        out.append(body, lineStart, end).append("\n");
+    }
+
+    /**
+     * Writes Javadoc lines for the given raw comment. The comment is wrapped in &lt;pre&gt;&lt;/pre&gt; tags, and
+     * characters that would be interpreted as HTML, as Javadoc tag, or as end of comment, are escaped.
+     */
+    private static void writeJavadocBody(Appendable out, String raw, String prefix) throws IOException {
+        out.append(prefix).append("<pre>\n").append(prefix);
+        int n = raw.length();
+        for (int i = 0; i < n; i++) {
+            var c = raw.charAt(i);
+            var next = (i + 1 < n) ? raw.charAt(i + 1) : 0;
+            switch (c) {
+            case '@':
+                out.append("{@literal @}");
+                break;
+            case '/':
+                out.append(next == '*' ? "{@literal /}" : "/");
+                break;
+            case '*':
+                // Unless the slash opens a comment, in which case that slash gets escaped instead
+                if (next == '/' && (i + 2 >= n || raw.charAt(i + 2) != '*')) {
+                    out.append("*{@literal /}");
+                    i++;
+                } else {
+                    out.append('*');
+                }
+                break;
+            case '<':
+                out.append("&lt;");
+                break;
+            case '>':
+                out.append("&gt;");
+                break;
+            case '\n':
+                out.append('\n').append(prefix);
+                break;
+            default:
+                out.append(c);
+            }
+        }
+        out.append("</pre>\n");
     }
 }
@@ -0,0 +1,21 @@
+package org.yamcs.api;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Descriptors.ServiceDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Test copy of the yamcs-api interface that generated services implement.
+ */
+public interface Api<T> {
+
+    ServiceDescriptor getDescriptorForType();
+
+    Message getRequestPrototype(MethodDescriptor method);
+
+    Message getResponsePrototype(MethodDescriptor method);
+
+    void callMethod(MethodDescriptor method, T ctx, Message request, Observer<Message> observer);
+
+    Observer<Message> callMethod(MethodDescriptor method, T ctx, Observer<Message> observer);
+}
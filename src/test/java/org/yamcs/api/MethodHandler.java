@@ -0,0 +1,16 @@
+package org.yamcs.api;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Test copy of the yamcs-api interface that generated clients send their calls to.
+ */
+public interface MethodHandler {
+
+    void call(MethodDescriptor method, Message request, Message responsePrototype,
+            Observer<? extends Message> observer);
+
+    Observer<? extends Message> streamingCall(MethodDescriptor method, Message requestPrototype,
+            Message responsePrototype, Observer<? extends Message> observer);
+}
@@ -0,0 +1,18 @@
+package org.yamcs.api;
+
+/**
+ * Test copy of the yamcs-api observer interface.
+ */
+public interface Observer<T> {
+
+    void next(T message);
+
+    void completeExceptionally(Throwable t);
+
+    void complete();
+
+    default void complete(T message) {
+        next(message);
+        complete();
+    }
+}
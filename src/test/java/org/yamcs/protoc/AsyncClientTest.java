@@ -0,0 +1,148 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.api.MethodHandler;
+import org.yamcs.api.Observer;
+import org.yamcs.protoc.test.TestMessagesProto.Item;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * The {@code <method>All} variants of clients generated with {@code async_client} must complete with the responses
+ * in request order, and fail as soon as one of the calls fails.
+ */
+public class AsyncClientTest {
+
+    @TempDir
+    static Path dir;
+
+    private static URLClassLoader loader;
+    private static Class<?> clientClass;
+    private static Method getItemAll;
+
+    @BeforeAll
+    public static void generate() throws Exception {
+        var request = GeneratorHarness.createRequest("async_client", TestServiceProto.getDescriptor());
+        loader = GeneratorHarness.compile(GeneratorHarness.generate(request), dir);
+        var clientClassname = GeneratorHarness.getClassName(TestServiceProto.getDescriptor(), 0, "", "AsyncClient");
+        clientClass = loader.loadClass(clientClassname);
+        getItemAll = clientClass.getMethod("getItemAll", List.class);
+    }
+
+    @AfterAll
+    public static void close() throws Exception {
+        loader.close();
+    }
+
+    @Test
+    public void completesOnCallingThread() throws Exception {
+        var future = getItemAll(new DirectMethodHandler(), "a", "b");
+        assertTrue(future.isDone());
+        assertEquals(List.of(Item.getDefaultInstance(), Item.getDefaultInstance()), future.get());
+    }
+
+    @Test
+    public void completesWithoutRequests() throws Exception {
+        var handler = new TestHandler();
+        var future = getItemAll(handler);
+        assertTrue(handler.pending.isEmpty());
+        assertEquals(List.of(), future.get());
+    }
+
+    @Test
+    public void keepsRequestOrder() throws Exception {
+        var handler = new TestHandler();
+        var future = getItemAll(handler, "a", "b", "c");
+        assertEquals(List.of("a", "b", "c"), handler.labels);
+
+        handler.complete(2);
+        handler.complete(0);
+        assertFalse(future.isDone());
+        handler.complete(1);
+
+        assertEquals(List.of("a", "b", "c"), getNames(future.get()));
+    }
+
+    @Test
+    public void failsFast() throws Exception {
+        var handler = new TestHandler();
+        var future = getItemAll(handler, "a", "b", "c");
+
+        handler.complete(0);
+        var error = new IllegalStateException();
+        handler.pending.get(1).completeExceptionally(error);
+
+        // Does not wait for the call that is still pending
+        assertTrue(future.isCompletedExceptionally());
+        var e = assertThrows(ExecutionException.class, future::get);
+        assertSame(error, e.getCause());
+
+        handler.complete(2);
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<List<Item>> getItemAll(MethodHandler handler, String... labels)
+            throws Exception {
+        var client = clientClass.getConstructor(MethodHandler.class).newInstance(handler);
+        var requests = new ArrayList<Item.Nested>();
+        for (var label : labels) {
+            requests.add(Item.Nested.newBuilder().setLabel(label).build());
+        }
+        return (CompletableFuture<List<Item>>) getItemAll.invoke(client, requests);
+    }
+
+    private static List<String> getNames(List<Item> items) {
+        var names = new ArrayList<String>();
+        for (var item : items) {
+            names.add(item.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Keeps calls pending until completed, and then answers with an item named after the request label.
+     */
+    private static class TestHandler implements MethodHandler {
+
+        final List<String> labels = new ArrayList<>();
+        final List<Observer<Message>> pending = new ArrayList<>();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void call(MethodDescriptor method, Message request, Message responsePrototype,
+                Observer<? extends Message> observer) {
+            labels.add(((Item.Nested) request).getLabel());
+            pending.add((Observer<Message>) observer);
+        }
+
+        @Override
+        public Observer<? extends Message> streamingCall(MethodDescriptor method, Message requestPrototype,
+                Message responsePrototype, Observer<? extends Message> observer) {
+            throw new UnsupportedOperationException();
+        }
+
+        void complete(int index) {
+            pending.get(index).complete(Item.newBuilder().setName(labels.get(index)).build());
+        }
+    }
+}
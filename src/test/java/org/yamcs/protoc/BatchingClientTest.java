@@ -0,0 +1,233 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.api.MethodHandler;
+import org.yamcs.api.Observer;
+import org.yamcs.protoc.test.TestMessagesProto.Item;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Clients generated with {@code batching_client} must send queued calls when either threshold is reached, through
+ * the batch transport if given or else one by one on the method handler.
+ */
+public class BatchingClientTest {
+
+    @TempDir
+    static Path dir;
+
+    private static URLClassLoader loader;
+    private static Class<?> clientClass;
+    private static Class<?> transportClass;
+    private static Method getItem;
+
+    private ScheduledExecutorService scheduler;
+
+    @BeforeAll
+    public static void generate() throws Exception {
+        var request = GeneratorHarness.createRequest("batching_client", TestServiceProto.getDescriptor());
+        loader = GeneratorHarness.compile(GeneratorHarness.generate(request), dir);
+        var clientClassname = GeneratorHarness.getClassName(TestServiceProto.getDescriptor(), 0, "",
+                "BatchingClient");
+        clientClass = loader.loadClass(clientClassname);
+        transportClass = loader.loadClass(clientClassname + "$BatchTransport");
+        getItem = clientClass.getMethod("getItem", Item.Nested.class, Observer.class);
+    }
+
+    @AfterAll
+    public static void close() throws Exception {
+        loader.close();
+    }
+
+    @BeforeEach
+    public void startScheduler() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    public void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void flushesOnSize() throws Exception {
+        var batches = new LinkedBlockingQueue<Batch>();
+        var client = newClient(new DirectMethodHandler(), newTransport(batches, null), 2, 60_000);
+
+        var observers = List.of(call(client, "a"), call(client, "b"), call(client, "c"));
+        assertEquals(1, batches.size());
+        var batch = batches.take();
+        assertEquals(List.of("a", "b"), batch.labels);
+        assertEquals(observers.subList(0, 2), batch.observers);
+
+        clientClass.getMethod("flush").invoke(client);
+        batch = batches.take();
+        assertEquals(List.of("c"), batch.labels);
+        assertEquals(observers.subList(2, 3), batch.observers);
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    public void flushesOnDelay() throws Exception {
+        var batches = new LinkedBlockingQueue<Batch>();
+        var client = newClient(new DirectMethodHandler(), newTransport(batches, null), 10, 50);
+
+        var start = System.nanoTime();
+        var observers = List.of(call(client, "a"), call(client, "b"));
+        assertTrue(batches.isEmpty());
+
+        var batch = batches.poll(10, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(List.of("a", "b"), batch.labels);
+        assertEquals(observers, batch.observers);
+
+        // The next call starts a new delay
+        call(client, "c");
+        batch = batches.poll(10, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertEquals(List.of("c"), batch.labels);
+    }
+
+    @Test
+    public void fallsBackToHandler() throws Exception {
+        var client = newClient(new DirectMethodHandler(), null, 2, 60_000);
+
+        var first = call(client, "a");
+        assertEquals(0, first.completions);
+        var second = call(client, "b");
+
+        for (var observer : List.of(first, second)) {
+            assertEquals(Item.getDefaultInstance(), observer.response);
+            assertEquals(1, observer.completions);
+        }
+    }
+
+    @Test
+    public void failsBatchWhenTransportThrows() throws Exception {
+        var error = new IllegalStateException();
+        var client = newClient(new DirectMethodHandler(), newTransport(new LinkedBlockingQueue<>(), error), 10, 50);
+
+        var observers = List.of(call(client, "a"), call(client, "b"));
+        for (var observer : observers) {
+            assertTrue(observer.done.await(10, TimeUnit.SECONDS));
+            assertSame(error, observer.error);
+            assertEquals(0, observer.completions);
+        }
+    }
+
+    @Test
+    public void failsOnlyCallsWhenHandlerThrows() throws Exception {
+        var error = new IllegalStateException();
+        var handler = new DirectMethodHandler() {
+            @Override
+            public void call(MethodDescriptor method, Message request, Message responsePrototype,
+                    Observer<? extends Message> observer) {
+                if (((Item.Nested) request).getLabel().equals("a")) {
+                    throw error;
+                }
+                super.call(method, request, responsePrototype, observer);
+            }
+        };
+        var client = newClient(handler, null, 2, 60_000);
+
+        var first = call(client, "a");
+        var second = call(client, "b");
+
+        assertSame(error, first.error);
+        assertEquals(0, first.completions);
+        assertNull(second.error);
+        assertEquals(1, second.completions);
+    }
+
+    private Object newClient(MethodHandler handler, Object transport, int maxBatchSize, long maxDelayMillis)
+            throws Exception {
+        return clientClass.getConstructor(MethodHandler.class, transportClass, ScheduledExecutorService.class,
+                int.class, long.class).newInstance(handler, transport, scheduler, maxBatchSize, maxDelayMillis);
+    }
+
+    /**
+     * Returns a transport that records each batch without completing its calls, or else throws the given error.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object newTransport(BlockingQueue<Batch> batches, RuntimeException error) {
+        return Proxy.newProxyInstance(loader, new Class<?>[] { transportClass }, (proxy, method, args) -> {
+            if (!method.getName().equals("callBatch")) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            if (error != null) {
+                throw error;
+            }
+            var batch = new Batch();
+            for (var request : (List<Message>) args[1]) {
+                batch.labels.add(((Item.Nested) request).getLabel());
+            }
+            batch.observers.addAll((List<Observer<? extends Message>>) args[3]);
+            batches.add(batch);
+            return null;
+        });
+    }
+
+    private static TestObserver call(Object client, String label) throws Exception {
+        var observer = new TestObserver();
+        getItem.invoke(client, Item.Nested.newBuilder().setLabel(label).build(), observer);
+        return observer;
+    }
+
+    private static class Batch {
+
+        final List<String> labels = new ArrayList<>();
+        final List<Observer<? extends Message>> observers = new ArrayList<>();
+    }
+
+    private static class TestObserver implements Observer<Item> {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Item response;
+        volatile Throwable error;
+        volatile int completions;
+
+        @Override
+        public void next(Item message) {
+            response = message;
+        }
+
+        @Override
+        public void completeExceptionally(Throwable t) {
+            error = t;
+            done.countDown();
+        }
+
+        @Override
+        public void complete() {
+            completions++;
+            done.countDown();
+        }
+    }
+}
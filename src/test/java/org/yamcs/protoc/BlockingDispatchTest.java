@@ -0,0 +1,165 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.api.Api;
+import org.yamcs.api.Observer;
+
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Message;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+/**
+ * Calls to methods marked with {@code blocking} must run on the blocking executor, and report failures to their
+ * observer. The default executor uses virtual threads, so generated code requires Java 21.
+ */
+public class BlockingDispatchTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @EnabledIf("hasVirtualThreads")
+    public void runsOnVirtualThread() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("blockingvirtual", 1);
+        try (var loader = compile(file, false)) {
+            var service = newService(loader, file);
+            var method = file.getServices().get(0).getMethods().get(0);
+
+            var observer = new RecordingObserver();
+            service.callMethod(method, null, Empty.getDefaultInstance(), observer);
+            observer.await();
+            assertNull(observer.error);
+
+            var thread = getThread(service);
+            assertNotSame(Thread.currentThread(), thread);
+            assertTrue((boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+        }
+    }
+
+    @Test
+    @EnabledIf("hasVirtualThreads")
+    public void completesExceptionallyWhenCallThrows() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("blockingthrows", 1);
+        try (var loader = compile(file, false)) {
+            var service = newService(loader, file);
+            var method = file.getServices().get(0).getMethods().get(0);
+            service.getClass().getField("fail").setBoolean(service, true);
+
+            // The caller is not affected, the failure goes to the observer
+            var observer = new RecordingObserver();
+            service.callMethod(method, null, Empty.getDefaultInstance(), observer);
+            observer.await();
+            assertInstanceOf(IllegalStateException.class, observer.error);
+            assertEquals(0, observer.completions);
+        }
+    }
+
+    @Test
+    @EnabledIf("hasVirtualThreads")
+    public void usesOverriddenExecutor() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("blockingcustom", 1);
+        try (var loader = compile(file, true)) {
+            var service = newService(loader, file);
+            var method = file.getServices().get(0).getMethods().get(0);
+
+            var observer = new RecordingObserver();
+            service.callMethod(method, null, Empty.getDefaultInstance(), observer);
+            observer.await();
+            assertNull(observer.error);
+            assertEquals("custom-blocking", getThread(service).getName());
+        }
+    }
+
+    static boolean hasVirtualThreads() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * Compiles the service with its only method marked as blocking, and with an implementation that keeps the thread
+     * it was called on. If {@code fail} is set, the method throws. With {@code customExecutor}, calls run on a new
+     * platform thread named {@code custom-blocking}.
+     */
+    private URLClassLoader compile(FileDescriptor file, boolean customExecutor) throws Exception {
+        var service = file.getServices().get(0);
+        var javaPackage = file.getOptions().getJavaPackage();
+        var request = GeneratorHarness.createRequest("blocking=" + service.getMethods().get(0).getFullName(), file);
+        var source = "package " + javaPackage + ";\n\n"
+                + "public class TestService extends Abstract" + service.getName() + "<Void> {\n\n"
+                + "    public boolean fail;\n"
+                + "    public volatile Thread thread;\n\n"
+                + "    @Override\n"
+                + "    public void method0(Void ctx, com.google.protobuf.Empty request,\n"
+                + "            org.yamcs.api.Observer<com.google.protobuf.Empty> observer) {\n"
+                + "        thread = Thread.currentThread();\n"
+                + "        if (fail) {\n"
+                + "            throw new IllegalStateException();\n"
+                + "        }\n"
+                + "        observer.complete(request);\n"
+                + "    }\n"
+                + (customExecutor ? "\n"
+                        + "    @Override\n"
+                        + "    protected java.util.concurrent.Executor getBlockingExecutor() {\n"
+                        + "        return r -> new Thread(r, \"custom-blocking\").start();\n"
+                        + "    }\n" : "")
+                + "}\n";
+        var response = GeneratorHarness.generate(request).toBuilder()
+                .addFile(CodeGeneratorResponse.File.newBuilder()
+                        .setName(javaPackage.replace('.', '/') + "/TestService.java")
+                        .setContent(source))
+                .build();
+        return GeneratorHarness.compile(response, dir);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Api<Void> newService(URLClassLoader loader, FileDescriptor file) throws Exception {
+        var className = file.getOptions().getJavaPackage() + ".TestService";
+        return (Api<Void>) loader.loadClass(className).getConstructor().newInstance();
+    }
+
+    private static Thread getThread(Api<Void> service) throws Exception {
+        return (Thread) service.getClass().getField("thread").get(service);
+    }
+
+    private static class RecordingObserver implements Observer<Message> {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Throwable error;
+        volatile int completions;
+
+        @Override
+        public void next(Message message) {
+        }
+
+        @Override
+        public void completeExceptionally(Throwable t) {
+            error = t;
+            done.countDown();
+        }
+
+        @Override
+        public void complete() {
+            completions++;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "Call did not complete");
+        }
+    }
+}
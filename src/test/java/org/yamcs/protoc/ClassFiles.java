@@ -0,0 +1,98 @@
+package org.yamcs.protoc;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads bytecode sizes from class files, as HotSpot sees them for its {@code HugeMethodLimit}.
+ */
+public class ClassFiles {
+
+    /**
+     * Returns the length of the Code attribute of each method that has one, keyed by name and descriptor.
+     */
+    public static Map<String, Integer> getCodeLengths(byte[] classFile) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(classFile));
+        in.skipBytes(8); // magic, minor_version, major_version
+
+        var constantPoolCount = in.readUnsignedShort();
+        var utf8 = new String[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            var tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                utf8[i] = in.readUTF();
+                break;
+            case 5: // Long
+            case 6: // Double
+                in.skipBytes(8);
+                i++; // Takes two entries
+                break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                in.skipBytes(4);
+                break;
+            case 15: // MethodHandle
+                in.skipBytes(3);
+                break;
+            case 7: // Class
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                in.skipBytes(2);
+                break;
+            default:
+                throw new IOException("Unexpected constant pool tag " + tag);
+            }
+        }
+
+        in.skipBytes(6); // access_flags, this_class, super_class
+        in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+
+        var fieldCount = in.readUnsignedShort();
+        for (int i = 0; i < fieldCount; i++) {
+            in.skipBytes(6); // access_flags, name_index, descriptor_index
+            skipAttributes(in);
+        }
+
+        var codeLengths = new LinkedHashMap<String, Integer>();
+        var methodCount = in.readUnsignedShort();
+        for (int i = 0; i < methodCount; i++) {
+            in.skipBytes(2); // access_flags
+            var name = utf8[in.readUnsignedShort()];
+            var descriptor = utf8[in.readUnsignedShort()];
+            var attributeCount = in.readUnsignedShort();
+            for (int j = 0; j < attributeCount; j++) {
+                var attributeName = utf8[in.readUnsignedShort()];
+                var length = in.readInt();
+                if (attributeName.equals("Code")) {
+                    in.skipBytes(4); // max_stack, max_locals
+                    var codeLength = in.readInt();
+                    codeLengths.put(name + descriptor, codeLength);
+                    in.skipBytes(length - 8);
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+        }
+        return codeLengths;
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        var attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            in.skipBytes(2);
+            in.skipBytes(in.readInt());
+        }
+    }
+}
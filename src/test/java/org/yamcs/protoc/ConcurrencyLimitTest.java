@@ -0,0 +1,161 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.api.Api;
+import org.yamcs.api.Observer;
+
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Message;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+/**
+ * Permits of methods with a {@code max_concurrency} limit must be released exactly once, however the call ends.
+ */
+public class ConcurrencyLimitTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void releasesPermitOnCompletion() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("limited", 1);
+        try (var loader = compile(file, "")) {
+            var service = newService(loader, file);
+            var method = file.getServices().get(0).getMethods().get(0);
+
+            var first = new RecordingObserver();
+            service.callMethod(method, null, Empty.getDefaultInstance(), first);
+            assertEquals(1, getActiveCalls(service, method));
+
+            var second = new RecordingObserver();
+            service.callMethod(method, null, Empty.getDefaultInstance(), second);
+            assertInstanceOf(RejectedExecutionException.class, second.error);
+            assertEquals(1, getActiveCalls(service, method));
+
+            var pending = getPending(service);
+            pending.complete();
+            assertEquals(0, getActiveCalls(service, method));
+
+            // Completing twice must not release a permit of another call
+            service.callMethod(method, null, Empty.getDefaultInstance(), new RecordingObserver());
+            pending.complete();
+            assertEquals(1, getActiveCalls(service, method));
+        }
+    }
+
+    @Test
+    public void releasesPermitWhenCallThrows() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("limitedthrows", 1);
+        try (var loader = compile(file, "")) {
+            var service = newService(loader, file);
+            var method = file.getServices().get(0).getMethods().get(0);
+            service.getClass().getField("fail").setBoolean(service, true);
+
+            assertThrows(IllegalStateException.class,
+                    () -> service.callMethod(method, null, Empty.getDefaultInstance(), new RecordingObserver()));
+            assertEquals(0, getActiveCalls(service, method));
+        }
+    }
+
+    @Test
+    @EnabledIf("hasVirtualThreads")
+    public void releasesPermitWhenExecutorRejects() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("limitedblocking", 1);
+        var blocking = "blocking=synthetic.limitedblocking.LimitedblockingService.Method0";
+        try (var loader = compile(file, blocking)) {
+            var service = newService(loader, file);
+            var method = file.getServices().get(0).getMethods().get(0);
+            service.getClass().getField("fail").setBoolean(service, true);
+
+            assertThrows(RejectedExecutionException.class,
+                    () -> service.callMethod(method, null, Empty.getDefaultInstance(), new RecordingObserver()));
+            assertEquals(0, getActiveCalls(service, method));
+        }
+    }
+
+    static boolean hasVirtualThreads() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * Compiles the service, with an implementation that keeps the observer of its only method. If {@code fail} is
+     * set, the method throws, and blocking calls are rejected by the executor.
+     */
+    private URLClassLoader compile(FileDescriptor file, String parameter) throws Exception {
+        var service = file.getServices().get(0);
+        var javaPackage = file.getOptions().getJavaPackage();
+        var maxConcurrency = "max_concurrency=" + service.getMethods().get(0).getFullName() + "=1";
+        var request = GeneratorHarness.createRequest(parameter.isEmpty() ? maxConcurrency
+                : parameter + "," + maxConcurrency, file);
+        var source = "package " + javaPackage + ";\n\n"
+                + "public class TestService extends Abstract" + service.getName() + "<Void> {\n\n"
+                + "    public boolean fail;\n"
+                + "    public org.yamcs.api.Observer<com.google.protobuf.Empty> pending;\n\n"
+                + "    @Override\n"
+                + "    public void method0(Void ctx, com.google.protobuf.Empty request,\n"
+                + "            org.yamcs.api.Observer<com.google.protobuf.Empty> observer) {\n"
+                + "        if (fail) {\n"
+                + "            throw new IllegalStateException();\n"
+                + "        }\n"
+                + "        pending = observer;\n"
+                + "    }\n\n"
+                + (parameter.isEmpty() ? "" : "    @Override\n"
+                        + "    protected java.util.concurrent.Executor getBlockingExecutor() {\n"
+                        + "        return fail ? r -> {\n"
+                        + "            throw new java.util.concurrent.RejectedExecutionException();\n"
+                        + "        } : Runnable::run;\n"
+                        + "    }\n")
+                + "}\n";
+        var response = GeneratorHarness.generate(request).toBuilder()
+                .addFile(CodeGeneratorResponse.File.newBuilder()
+                        .setName(javaPackage.replace('.', '/') + "/TestService.java")
+                        .setContent(source))
+                .build();
+        return GeneratorHarness.compile(response, dir);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Api<Void> newService(URLClassLoader loader, FileDescriptor file) throws Exception {
+        var className = file.getOptions().getJavaPackage() + ".TestService";
+        return (Api<Void>) loader.loadClass(className).getConstructor().newInstance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Observer<Message> getPending(Api<Void> service) throws Exception {
+        return (Observer<Message>) service.getClass().getField("pending").get(service);
+    }
+
+    private static int getActiveCalls(Api<Void> service, MethodDescriptor method) throws Exception {
+        return (int) service.getClass().getMethod("getActiveCalls", MethodDescriptor.class).invoke(service, method);
+    }
+
+    private static class RecordingObserver implements Observer<Message> {
+
+        Throwable error;
+
+        @Override
+        public void next(Message message) {
+        }
+
+        @Override
+        public void completeExceptionally(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void complete() {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.yamcs.protoc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+/**
+ * A plugin invocation as protoc does it, in a new JVM, with and without a warm daemon.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DaemonBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean daemon;
+
+    private Path dir;
+    private Map<String, String> env;
+    private CodeGeneratorRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("daemon", 200);
+        request = GeneratorHarness.createRequest("", file);
+        dir = Files.createTempDirectory("daemon-benchmark");
+        if (daemon) {
+            env = Map.of(GeneratorDaemon.DIR_VARIABLE, dir.resolve("state").toString());
+            // The first invocation starts the daemon
+            GeneratorHarness.runPlugin(request, dir, env);
+            while (!hasPortFile()) {
+                Thread.sleep(50);
+            }
+        } else {
+            env = Map.of();
+        }
+    }
+
+    private boolean hasPortFile() throws IOException {
+        if (!Files.exists(dir.resolve("state"))) {
+            return false;
+        }
+        try (var paths = Files.walk(dir.resolve("state"))) {
+            return paths.anyMatch(path -> path.getFileName().toString().equals("daemon.port"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        // The daemon exits on its own when idle
+        GeneratorHarness.delete(dir);
+    }
+
+    @Benchmark
+    public CodeGeneratorResponse invoke() throws Exception {
+        return GeneratorHarness.runPlugin(request, dir, env);
+    }
+}
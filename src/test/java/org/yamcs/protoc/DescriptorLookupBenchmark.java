@@ -0,0 +1,42 @@
+package org.yamcs.protoc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Descriptors.ServiceDescriptor;
+
+/**
+ * Method descriptor lookup as generated code did it on every call, against the static constants that it uses now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DescriptorLookupBenchmark {
+
+    static final ServiceDescriptor DESCRIPTOR = TestServiceProto.getDescriptor().getServices().get(0);
+    static final MethodDescriptor METHOD_SYNC_ITEMS = DESCRIPTOR.getMethods().get(4);
+
+    @Benchmark
+    public MethodDescriptor descriptorChain() {
+        return TestServiceProto.getDescriptor().getServices().get(0).getMethods().get(4);
+    }
+
+    @Benchmark
+    public MethodDescriptor constant() {
+        return METHOD_SYNC_ITEMS;
+    }
+}
@@ -0,0 +1,43 @@
+package org.yamcs.protoc;
+
+import org.yamcs.api.MethodHandler;
+import org.yamcs.api.Observer;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Method handler that answers each call with the default response, on the calling thread.
+ */
+public class DirectMethodHandler implements MethodHandler {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void call(MethodDescriptor method, Message request, Message responsePrototype,
+            Observer<? extends Message> observer) {
+        ((Observer<Message>) observer).complete(responsePrototype);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Observer<? extends Message> streamingCall(MethodDescriptor method, Message requestPrototype,
+            Message responsePrototype, Observer<? extends Message> observer) {
+        var responseObserver = (Observer<Message>) observer;
+        return new Observer<Message>() {
+
+            @Override
+            public void next(Message message) {
+            }
+
+            @Override
+            public void completeExceptionally(Throwable t) {
+                responseObserver.completeExceptionally(t);
+            }
+
+            @Override
+            public void complete() {
+                responseObserver.complete(responsePrototype);
+            }
+        };
+    }
+}
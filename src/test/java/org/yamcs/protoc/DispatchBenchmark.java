@@ -0,0 +1,120 @@
+package org.yamcs.protoc;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.yamcs.api.Api;
+import org.yamcs.api.MethodHandler;
+import org.yamcs.api.Observer;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Message;
+
+/**
+ * Runtime cost of generated code: dispatch by method descriptor, and client calls against a handler that answers
+ * immediately. Calls rotate over all unary methods, so that dispatch is not predicted for a single method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({ "10", "1000" })
+    public int methodCount;
+
+    @Param({ "", "dispatch=table" })
+    public String parameter;
+
+    private Path dir;
+    private URLClassLoader loader;
+    private Api<Void> client;
+    private MethodDescriptor[] methods;
+    private int next;
+    private Blackhole blackhole;
+    private Observer<Message> observer;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        var name = "dispatch" + methodCount + (parameter.isEmpty() ? "" : "table");
+        var file = GeneratorHarness.createSyntheticFile(name, methodCount);
+        var response = GeneratorHarness.generate(GeneratorHarness.createRequest(parameter, file));
+        dir = Files.createTempDirectory("dispatch-benchmark");
+        loader = GeneratorHarness.compile(response, dir);
+
+        var clientClass = loader.loadClass(GeneratorHarness.getClassName(file, 0, "", "Client"));
+        client = (Api<Void>) clientClass.getConstructor(MethodHandler.class).newInstance(new DirectMethodHandler());
+
+        var unaryMethods = new ArrayList<MethodDescriptor>();
+        for (var method : file.getServices().get(0).getMethods()) {
+            if (!method.isClientStreaming() && !method.isServerStreaming()) {
+                unaryMethods.add(method);
+            }
+        }
+        methods = unaryMethods.toArray(new MethodDescriptor[0]);
+
+        observer = new Observer<>() {
+
+            @Override
+            public void next(Message message) {
+                DispatchBenchmark.this.blackhole.consume(message);
+            }
+
+            @Override
+            public void completeExceptionally(Throwable t) {
+                throw new IllegalStateException(t);
+            }
+
+            @Override
+            public void complete() {
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        loader.close();
+        GeneratorHarness.delete(dir);
+    }
+
+    private MethodDescriptor nextMethod() {
+        var method = methods[next];
+        next = (next + 1 == methods.length) ? 0 : next + 1;
+        return method;
+    }
+
+    @Benchmark
+    public Message getRequestPrototype() {
+        return client.getRequestPrototype(nextMethod());
+    }
+
+    /**
+     * A call through {@code Api.callMethod}: dispatch, the client method, and the handler.
+     */
+    @Benchmark
+    public void callMethod() {
+        client.callMethod(nextMethod(), null, Empty.getDefaultInstance(), observer);
+    }
+}
@@ -0,0 +1,111 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Empty;
+
+/**
+ * Generated methods of a large service, or of a registry of many services, must stay below HotSpot's
+ * {@code HugeMethodLimit}, beyond which the JIT does not compile them.
+ */
+public class DispatchSizeTest {
+
+    private static final int HUGE_METHOD_LIMIT = 8000;
+    private static final int METHOD_COUNT = 1000;
+    private static final int REGISTRY_SERVICE_COUNT = 300;
+    private static final int REGISTRY_METHOD_COUNT = 20;
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(strings = { "", "dispatch=table", "metrics" })
+    public void largeServiceStaysBelowHugeMethodLimit(String parameter) throws Exception {
+        var name = "huge" + parameter.replaceAll("[^a-z]", "");
+        var file = GeneratorHarness.createSyntheticFile(name, METHOD_COUNT);
+        var response = GeneratorHarness.generate(GeneratorHarness.createRequest(parameter, file));
+        try (var loader = GeneratorHarness.compile(response, dir)) {
+            // Loading verifies the bytecode
+            loader.loadClass(GeneratorHarness.getClassName(file, 0, "", "Client"));
+        }
+
+        var serviceClass = GeneratorHarness.getClassName(file, 0, "Abstract", "");
+        var classFile = dir.resolve("classes").resolve(serviceClass.replace('.', '/') + ".class");
+        var codeLengths = ClassFiles.getCodeLengths(Files.readAllBytes(classFile));
+        for (var dispatchMethod : new String[] { "getRequestPrototype", "getResponsePrototype", "callMethod" }) {
+            assertTrue(codeLengths.keySet().stream().anyMatch(method -> method.startsWith(dispatchMethod + "(")),
+                    "Missing " + dispatchMethod);
+        }
+
+        assertBelowHugeMethodLimit();
+    }
+
+    /**
+     * Unlike dispatch methods, static initializers are not split, and have the 64 KiB limit of all methods.
+     */
+    @ParameterizedTest
+    @CsvSource({ "'', 4000", "dispatch=table, 2000" })
+    public void veryLargeServiceCompiles(String parameter, int methodCount) throws Exception {
+        var name = "verylarge" + parameter.replaceAll("[^a-z]", "");
+        var file = GeneratorHarness.createSyntheticFile(name, methodCount);
+        var response = GeneratorHarness.generate(GeneratorHarness.createRequest(parameter, file));
+        try (var loader = GeneratorHarness.compile(response, dir)) {
+            var serviceClass = Class.forName(GeneratorHarness.getClassName(file, 0, "Abstract", ""), true, loader);
+            var field = serviceClass.getDeclaredField("METHOD_METHOD" + (methodCount - 1));
+            field.setAccessible(true);
+            var method = file.getServices().get(0).getMethods().get(methodCount - 1);
+            assertEquals(method, field.get(null));
+
+            if (!parameter.isEmpty()) {
+                field = serviceClass.getDeclaredField("REQUEST_PARSERS");
+                field.setAccessible(true);
+                var parsers = (Object[]) field.get(null);
+                assertEquals(methodCount, parsers.length);
+                assertSame(Empty.parser(), parsers[methodCount - 1]);
+            }
+        }
+        assertBelowHugeMethodLimit();
+    }
+
+    @Test
+    public void largeRegistryStaysBelowHugeMethodLimit() throws Exception {
+        var files = new FileDescriptor[REGISTRY_SERVICE_COUNT];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = GeneratorHarness.createSyntheticFile("registered" + i, REGISTRY_METHOD_COUNT);
+        }
+        var request = GeneratorHarness.createRequest("registry=org.yamcs.protoc.synthetic.Registry", files);
+        try (var loader = GeneratorHarness.compile(GeneratorHarness.generate(request), dir)) {
+            var registryClass = loader.loadClass("org.yamcs.protoc.synthetic.Registry");
+            var entries = (List<?>) registryClass.getMethod("getEntries").invoke(null);
+            assertEquals(REGISTRY_SERVICE_COUNT, entries.size());
+        }
+        assertBelowHugeMethodLimit();
+    }
+
+    private void assertBelowHugeMethodLimit() throws IOException {
+        try (var classFiles = Files.walk(dir.resolve("classes"))) {
+            for (var path : (Iterable<Path>) classFiles.filter(p -> p.toString().endsWith(".class"))::iterator) {
+                ClassFiles.getCodeLengths(Files.readAllBytes(path)).forEach((method, length) -> {
+                    // Static initializers run once, so whether they are compiled does not matter
+                    assertFalse(!method.startsWith("<clinit>") && length >= HUGE_METHOD_LIMIT,
+                            path.getFileName() + ": " + method + " has " + length + " bytes of bytecode");
+                });
+            }
+        }
+    }
+}
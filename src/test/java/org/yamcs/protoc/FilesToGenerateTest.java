@@ -0,0 +1,38 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+/**
+ * Dependencies in a request are only used to resolve types. Code is generated for the requested files alone.
+ */
+public class FilesToGenerateTest {
+
+    @Test
+    public void dependenciesAreNotGenerated() throws Exception {
+        var base = GeneratorHarness.createSyntheticFile("importbase", 2);
+        var middle = GeneratorHarness.createSyntheticFile("importmiddle", 2, base);
+        var top = GeneratorHarness.createSyntheticFile("importtop", 2, middle);
+
+        var response = GeneratorHarness.generate(GeneratorHarness.createRequest("", top));
+        assertEquals(Set.of("org/yamcs/protoc/synthetic/importtop"), getDirectories(response));
+
+        response = GeneratorHarness.generate(GeneratorHarness.createRequest("", base, top));
+        assertEquals(Set.of("org/yamcs/protoc/synthetic/importbase", "org/yamcs/protoc/synthetic/importtop"),
+                getDirectories(response));
+    }
+
+    private static Set<String> getDirectories(CodeGeneratorResponse response) {
+        var directories = new TreeSet<String>();
+        for (var file : response.getFileList()) {
+            directories.add(file.getName().substring(0, file.getName().lastIndexOf('/')));
+        }
+        return directories;
+    }
+}
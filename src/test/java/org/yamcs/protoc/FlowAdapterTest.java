@@ -0,0 +1,410 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Constructor;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.api.Api;
+import org.yamcs.api.Observer;
+import org.yamcs.protoc.test.TestMessagesProto.Item;
+import org.yamcs.protoc.test.TestMessagesProto.ListItemsRequest;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+/**
+ * The adapters between {@link Flow} streams and observers, that services generated with {@code flow_control} use,
+ * must follow the demand of subscribers and deliver terminal signals once.
+ */
+public class FlowAdapterTest {
+
+    private static final int BUFFER_SIZE = 4;
+
+    @TempDir
+    static Path dir;
+
+    private static URLClassLoader loader;
+    private static Constructor<?> publisherConstructor;
+    private static Constructor<?> subscriberConstructor;
+
+    @BeforeAll
+    public static void generate() throws Exception {
+        var request = GeneratorHarness.createRequest("flow_control=" + BUFFER_SIZE, TestServiceProto.getDescriptor());
+        var javaPackage = TestServiceProto.getDescriptor().getOptions().getJavaPackage();
+        var item = "org.yamcs.protoc.test.TestMessagesProto.Item";
+        var source = "package " + javaPackage + ";\n\n"
+                + "import java.util.concurrent.Flow;\n"
+                + "import org.yamcs.api.Observer;\n"
+                + "import org.yamcs.protoc.test.TestMessagesProto.*;\n\n"
+                + "public class FlowService extends AbstractTestService<Void> {\n\n"
+                + "    public Flow.Publisher<" + item + "> requests;\n"
+                + "    public BufferedPublisher<" + item + "> responses;\n\n"
+                + "    @Override\n"
+                + "    public void listItems(Void ctx, ListItemsRequest request,\n"
+                + "            Observer<ListItemsResponse> observer) {\n"
+                + "    }\n\n"
+                + "    @Override\n"
+                + "    public void getItem(Void ctx, Item.Nested request, Observer<Item> observer) {\n"
+                + "    }\n\n"
+                + "    @Override\n"
+                + "    public Flow.Publisher<Item> streamItems(Void ctx, ListItemsRequest request) {\n"
+                + "        return responses = new BufferedPublisher<>(" + BUFFER_SIZE + ", null);\n"
+                + "    }\n\n"
+                + "    @Override\n"
+                + "    public Observer<Item> uploadItems(Void ctx, Observer<ListItemsResponse> observer) {\n"
+                + "        return null;\n"
+                + "    }\n\n"
+                + "    @Override\n"
+                + "    public Flow.Publisher<Item> syncItems(Void ctx, Flow.Publisher<Item> requests) {\n"
+                + "        this.requests = requests;\n"
+                + "        return responses = new BufferedPublisher<>(" + BUFFER_SIZE + ", null);\n"
+                + "    }\n"
+                + "}\n";
+        var response = GeneratorHarness.generate(request).toBuilder()
+                .addFile(CodeGeneratorResponse.File.newBuilder()
+                        .setName(javaPackage.replace('.', '/') + "/FlowService.java")
+                        .setContent(source))
+                .build();
+        loader = GeneratorHarness.compile(response, dir);
+
+        var serviceClassname = GeneratorHarness.getClassName(TestServiceProto.getDescriptor(), 0, "Abstract", "");
+        publisherConstructor = loader.loadClass(serviceClassname + "$BufferedPublisher")
+                .getDeclaredConstructor(int.class, Consumer.class);
+        publisherConstructor.setAccessible(true);
+        subscriberConstructor = loader.loadClass(serviceClassname + "$ObserverSubscriber")
+                .getDeclaredConstructor(Observer.class, int.class);
+        subscriberConstructor.setAccessible(true);
+    }
+
+    @AfterAll
+    public static void close() throws Exception {
+        loader.close();
+    }
+
+    @Test
+    public void publishesOnDemand() throws Exception {
+        var publisher = newPublisher(null);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        publisher.next(item("a"));
+        publisher.next(item("b"));
+        assertEquals(List.of(), subscriber.names());
+
+        subscriber.subscription.request(1);
+        assertEquals(List.of("a"), subscriber.names());
+        subscriber.subscription.request(2);
+        assertEquals(List.of("a", "b"), subscriber.names());
+        publisher.next(item("c"));
+        assertEquals(List.of("a", "b", "c"), subscriber.names());
+        publisher.next(item("d"));
+        assertEquals(List.of("a", "b", "c"), subscriber.names());
+
+        // Completion waits for buffered messages to be delivered
+        publisher.complete();
+        assertEquals(0, subscriber.completions);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.subscription.request(Long.MAX_VALUE); // Must not overflow
+        assertEquals(List.of("a", "b", "c", "d"), subscriber.names());
+        assertEquals(1, subscriber.completions);
+    }
+
+    @Test
+    public void failsWhenBufferIsFull() throws Exception {
+        var publisher = newPublisher(null);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        for (int i = 0; i <= BUFFER_SIZE; i++) {
+            publisher.next(item("m" + i));
+        }
+        assertEquals(List.of(), subscriber.names());
+        assertInstanceOf(IllegalStateException.class, subscriber.error);
+
+        // Buffered messages are discarded, and later signals ignored
+        subscriber.subscription.request(10);
+        publisher.next(item("late"));
+        publisher.complete();
+        assertEquals(List.of(), subscriber.names());
+        assertEquals(1, subscriber.terminations());
+    }
+
+    @Test
+    public void failsOnNonPositiveRequest() throws Exception {
+        for (var n : new long[] { 0, -1 }) {
+            var publisher = newPublisher(null);
+            var subscriber = new RecordingSubscriber();
+            publisher.subscribe(subscriber);
+            publisher.next(item("a"));
+
+            // Reactive Streams rule 3.9
+            subscriber.subscription.request(n);
+            assertInstanceOf(IllegalArgumentException.class, subscriber.error);
+            subscriber.subscription.request(1);
+            assertEquals(List.of(), subscriber.names());
+            assertEquals(1, subscriber.terminations());
+        }
+
+        // Also when the stream has completed, but the completion is not yet delivered
+        var publisher = newPublisher(null);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        publisher.next(item("a"));
+        publisher.complete();
+        subscriber.subscription.request(0);
+        assertInstanceOf(IllegalArgumentException.class, subscriber.error);
+        assertEquals(1, subscriber.terminations());
+    }
+
+    @Test
+    public void deliversTerminalSignalOnce() throws Exception {
+        var publisher = newPublisher(null);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        var error = new IllegalStateException();
+        publisher.completeExceptionally(error);
+        publisher.completeExceptionally(new IllegalArgumentException());
+        publisher.complete();
+        subscriber.subscription.request(1);
+        assertSame(error, subscriber.error);
+        assertEquals(1, subscriber.terminations());
+
+        publisher = newPublisher(null);
+        subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        publisher.complete();
+        publisher.complete();
+        publisher.completeExceptionally(error);
+        assertNull(subscriber.error);
+        assertEquals(1, subscriber.terminations());
+    }
+
+    @Test
+    public void stopsOnCancel() throws Exception {
+        var publisher = newPublisher(null);
+        var subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(10);
+        publisher.next(item("a"));
+        subscriber.subscription.cancel();
+        publisher.next(item("b"));
+        publisher.complete();
+        assertEquals(List.of("a"), subscriber.names());
+        assertEquals(0, subscriber.terminations());
+    }
+
+    @Test
+    public void startsOnSubscribe() throws Exception {
+        var started = new ArrayList<Observer<Message>>();
+        var publisher = newPublisher(started::add);
+        assertEquals(List.of(), started);
+
+        publisher.subscribe(new RecordingSubscriber());
+        assertEquals(List.of(publisher), started);
+        assertThrows(IllegalStateException.class, () -> publisher.subscribe(new RecordingSubscriber()));
+    }
+
+    @Test
+    public void subscriberRequestsInBatches() throws Exception {
+        var observer = new RecordingObserver();
+        @SuppressWarnings("unchecked")
+        var subscriber = (Flow.Subscriber<Message>) subscriberConstructor.newInstance(observer, BUFFER_SIZE);
+        var requested = new ArrayList<Long>();
+        subscriber.onSubscribe(new Flow.Subscription() {
+
+            @Override
+            public void request(long n) {
+                requested.add(n);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        assertEquals(List.of((long) BUFFER_SIZE), requested);
+
+        // Half the buffer is requested again once it has been received
+        subscriber.onNext(item("a"));
+        assertEquals(List.of((long) BUFFER_SIZE), requested);
+        subscriber.onNext(item("b"));
+        assertEquals(List.of((long) BUFFER_SIZE, BUFFER_SIZE / 2L), requested);
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            subscriber.onNext(item("m" + i));
+        }
+        assertEquals(List.of((long) BUFFER_SIZE, BUFFER_SIZE / 2L, BUFFER_SIZE / 2L, BUFFER_SIZE / 2L), requested);
+        assertEquals(2 + BUFFER_SIZE, observer.messages.size());
+
+        var error = new IllegalStateException();
+        subscriber.onError(error);
+        assertSame(error, observer.error);
+        subscriber.onComplete();
+        assertEquals(1, observer.completions);
+    }
+
+    @Test
+    public void serverStreaming() throws Exception {
+        var service = newService();
+        var method = TestServiceProto.getDescriptor().getServices().get(0).findMethodByName("StreamItems");
+        var observer = new RecordingObserver();
+        service.callMethod(method, null, ListItemsRequest.getDefaultInstance(), observer);
+
+        var responses = getResponses(service);
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            responses.next(item("m" + i));
+        }
+        responses.complete();
+        assertEquals(BUFFER_SIZE, observer.messages.size());
+        assertEquals(1, observer.completions);
+    }
+
+    @Test
+    public void clientStreaming() throws Exception {
+        var service = newService();
+        var method = TestServiceProto.getDescriptor().getServices().get(0).findMethodByName("SyncItems");
+        var observer = new RecordingObserver();
+        var requestObserver = service.callMethod(method, null, observer);
+
+        // Requests are buffered until the handler asks for them
+        requestObserver.next(item("a"));
+        requestObserver.next(item("b"));
+        requestObserver.complete();
+        var requests = getRequests(service);
+        var subscriber = new RecordingSubscriber();
+        requests.subscribe(subscriber);
+        assertEquals(List.of(), subscriber.names());
+        subscriber.subscription.request(1);
+        assertEquals(List.of("a"), subscriber.names());
+        assertEquals(0, subscriber.completions);
+        subscriber.subscription.request(1);
+        assertEquals(List.of("a", "b"), subscriber.names());
+        assertEquals(1, subscriber.completions);
+
+        var responses = getResponses(service);
+        responses.next(item("c"));
+        responses.completeExceptionally(new IllegalStateException());
+        assertEquals(1, observer.messages.size());
+        assertInstanceOf(IllegalStateException.class, observer.error);
+    }
+
+    @Test
+    public void clientStreamingOverflow() throws Exception {
+        var service = newService();
+        var method = TestServiceProto.getDescriptor().getServices().get(0).findMethodByName("SyncItems");
+        var requestObserver = service.callMethod(method, null, new RecordingObserver());
+        for (int i = 0; i <= BUFFER_SIZE; i++) {
+            requestObserver.next(item("m" + i));
+        }
+
+        var subscriber = new RecordingSubscriber();
+        getRequests(service).subscribe(subscriber);
+        assertEquals(List.of(), subscriber.names());
+        assertInstanceOf(IllegalStateException.class, subscriber.error);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P extends Flow.Publisher<Message> & Observer<Message>> P newPublisher(
+            Consumer<Observer<Message>> start) throws Exception {
+        return (P) publisherConstructor.newInstance(BUFFER_SIZE, start);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Api<Void> newService() throws Exception {
+        var className = TestServiceProto.getDescriptor().getOptions().getJavaPackage() + ".FlowService";
+        return (Api<Void>) loader.loadClass(className).getConstructor().newInstance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Observer<Message> getResponses(Api<Void> service) throws Exception {
+        return (Observer<Message>) service.getClass().getField("responses").get(service);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Flow.Publisher<Message> getRequests(Api<Void> service) throws Exception {
+        return (Flow.Publisher<Message>) service.getClass().getField("requests").get(service);
+    }
+
+    private static Item item(String name) {
+        return Item.newBuilder().setName(name).build();
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Message> {
+
+        Flow.Subscription subscription;
+        List<Message> messages = new ArrayList<>();
+        Throwable error;
+        int errors;
+        int completions;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Message message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            errors++;
+        }
+
+        @Override
+        public void onComplete() {
+            completions++;
+        }
+
+        List<String> names() {
+            var names = new ArrayList<String>();
+            for (var message : messages) {
+                names.add(((Item) message).getName());
+            }
+            return names;
+        }
+
+        int terminations() {
+            return errors + completions;
+        }
+    }
+
+    private static class RecordingObserver implements Observer<Message> {
+
+        List<Message> messages = new ArrayList<>();
+        Throwable error;
+        int completions;
+
+        @Override
+        public void next(Message message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void completeExceptionally(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void complete() {
+            completions++;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse.File;
+
+/**
+ * Entries of the {@code cache_dir} cache must be reused while nothing that affects them changes, and must never fail
+ * or corrupt generation.
+ */
+public class GenerationCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void reusesEntries() throws Exception {
+        var cacheDir = dir.resolve("cache");
+        var request = GeneratorHarness.createRequest("cache_dir=" + cacheDir, TestServiceProto.getDescriptor());
+        var expected = GeneratorHarness.generate(
+                GeneratorHarness.createRequest("", TestServiceProto.getDescriptor()));
+        assertEquals(expected, GeneratorHarness.generate(request));
+
+        // Replace the only entry, to see that the next run is answered from it
+        var entries = listEntries(cacheDir);
+        assertEquals(1, entries.size());
+        var marker = CodeGeneratorResponse.newBuilder()
+                .addFile(File.newBuilder().setName("marker"))
+                .build();
+        Files.write(entries.get(0), marker.toByteArray());
+        assertEquals(marker, GeneratorHarness.generate(request));
+    }
+
+    @Test
+    public void regeneratesCorruptEntries() throws Exception {
+        var cacheDir = dir.resolve("cache");
+        var request = GeneratorHarness.createRequest("cache_dir=" + cacheDir, TestServiceProto.getDescriptor());
+        var expected = GeneratorHarness.generate(request);
+
+        var entry = listEntries(cacheDir).get(0);
+        Files.write(entry, new byte[] { (byte) 0xFF, 0x01, 0x02 });
+        assertEquals(expected, GeneratorHarness.generate(request));
+        assertEquals(expected.getFileList(), CodeGeneratorResponse.parseFrom(Files.readAllBytes(entry)).getFileList());
+    }
+
+    @Test
+    public void ignoresWriteFailures() throws Exception {
+        var cacheDir = dir.resolve("cache");
+        var request = GeneratorHarness.createRequest("cache_dir=" + cacheDir, TestServiceProto.getDescriptor());
+        var generator = new ServiceGenerator(request);
+
+        // Entries cannot be written once the directory is replaced with a file
+        Files.delete(cacheDir);
+        Files.createFile(cacheDir);
+
+        var bytes = new ByteArrayOutputStream();
+        var out = CodedOutputStream.newInstance(bytes);
+        generator.generate(out);
+        out.flush();
+        var expected = GeneratorHarness.generate(
+                GeneratorHarness.createRequest("", TestServiceProto.getDescriptor()));
+        assertEquals(expected, CodeGeneratorResponse.parseFrom(bytes.toByteArray()));
+    }
+
+    @Test
+    public void keyCoversTransitiveDependencies() throws Exception {
+        var base = createFile("base.proto");
+        var middle = createFile("middle.proto", "base.proto");
+        var top = createFile("top.proto", "middle.proto");
+        var other = createFile("other.proto");
+        var files = Map.of("base.proto", base, "middle.proto", middle, "top.proto", top, "other.proto", other);
+        var cache = new GenerationCache(dir, "hash", "");
+        var key = cache.computeKey(top, files);
+        assertEquals(key, cache.computeKey(top, Map.copyOf(files)));
+
+        // Unrelated files do not affect the key
+        var otherChanged = Map.of("base.proto", base, "middle.proto", middle, "top.proto", top,
+                "other.proto", addMessage(other));
+        assertEquals(key, cache.computeKey(top, otherChanged));
+
+        var baseChanged = Map.of("base.proto", addMessage(base), "middle.proto", middle, "top.proto", top,
+                "other.proto", other);
+        assertNotEquals(key, cache.computeKey(top, baseChanged));
+
+        assertNotEquals(key, new GenerationCache(dir, "rebuilt", "").computeKey(top, files));
+        assertNotEquals(key, new GenerationCache(dir, "hash", "json_writers").computeKey(top, files));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        var cache = new GenerationCache(dir, "hash", "");
+        var files = List.of(File.newBuilder().setName("a").setContent("x".repeat(1000)).build());
+        var now = System.currentTimeMillis();
+        for (var key : List.of("a", "b", "c")) {
+            cache.put(key, files);
+        }
+        Files.setLastModifiedTime(dir.resolve("a.pb"), FileTime.fromMillis(now - 30_000));
+        Files.setLastModifiedTime(dir.resolve("b.pb"), FileTime.fromMillis(now - 20_000));
+        Files.setLastModifiedTime(dir.resolve("c.pb"), FileTime.fromMillis(now - 10_000));
+        var staleTmp = Files.createFile(dir.resolve("d123.tmp"));
+        Files.setLastModifiedTime(staleTmp, FileTime.fromMillis(now - 7200_000));
+        var recentTmp = Files.createFile(dir.resolve("e123.tmp"));
+
+        // Without additions, nothing is evicted
+        new GenerationCache(dir, "hash", "").evict(0);
+        assertEquals(3, listEntries(dir).size());
+
+        assertEquals(files, cache.get("a"));
+        cache.evict(2 * Files.size(dir.resolve("a.pb")));
+        assertEquals(files, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(files, cache.get("c"));
+        assertFalse(Files.exists(staleTmp));
+        assertTrue(Files.exists(recentTmp));
+    }
+
+    private static FileDescriptorProto createFile(String name, String... dependencies) {
+        return FileDescriptorProto.newBuilder()
+                .setName(name)
+                .setPackage("test")
+                .addAllDependency(List.of(dependencies))
+                .build();
+    }
+
+    private static FileDescriptorProto addMessage(FileDescriptorProto file) {
+        return file.toBuilder()
+                .addMessageType(DescriptorProto.newBuilder().setName("Added"))
+                .build();
+    }
+
+    private static List<Path> listEntries(Path cacheDir) throws Exception {
+        try (var stream = Files.list(cacheDir)) {
+            return stream.filter(path -> path.toString().endsWith(".pb")).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+public class GenerationReportTest {
+
+    private static final long WRITE_DELAY = 500;
+
+    /**
+     * Writes to protoc are slow here, and must show up as write time, not as generate time.
+     */
+    @Test
+    public void writesAreNotCountedAsGeneration() throws Exception {
+        var request = GeneratorHarness.createRequest("report", TestServiceProto.getDescriptor());
+        var bytes = new ByteArrayOutputStream();
+        var slowOutput = new FilterOutputStream(bytes) {
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    Thread.sleep(WRITE_DELAY);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                out.write(b, off, len);
+            }
+        };
+        ServiceGenerator.generate(new ByteArrayInputStream(request.toByteArray()), slowOutput);
+
+        var response = CodeGeneratorResponse.parseFrom(bytes.toByteArray());
+        var report = response.getFileList().stream()
+                .filter(file -> file.getName().equals("yamcs-protoc-report.json"))
+                .findFirst().orElseThrow().getContent();
+        var generateTime = getPhaseTime(report, "generate");
+        var writeTime = getPhaseTime(report, "write");
+        assertTrue(writeTime >= WRITE_DELAY, report);
+        assertTrue(generateTime < WRITE_DELAY, report);
+    }
+
+    private static double getPhaseTime(String report, String phase) {
+        var matcher = Pattern.compile("\"" + phase + "\": ([0-9.]+)").matcher(report);
+        assertTrue(matcher.find(), report);
+        return Double.parseDouble(matcher.group(1));
+    }
+}
@@ -0,0 +1,80 @@
+package org.yamcs.protoc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+
+/**
+ * Cost of the generator itself, on a synthetic service of configurable size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeneratorBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int methodCount;
+
+    private CodeGeneratorRequest request;
+    private SourceBuilder source;
+
+    @Setup
+    public void setup() {
+        var file = GeneratorHarness.createSyntheticFile("generator" + methodCount, methodCount);
+        request = GeneratorHarness.createRequest("", file);
+
+        // A class shaped like a generated client: one documented method per service method
+        source = new SourceBuilder("GeneratorBenchmarkClient");
+        source.setPackage("org.yamcs.protoc.synthetic");
+        source.setJavadoc("Synthetic client.\n");
+        for (int i = 0; i < methodCount; i++) {
+            var msource = source.addMethod("method" + i);
+            msource.setJavadoc(" Calls method " + i + ".\n");
+            msource.addArg("Void", "ctx");
+            msource.addArg("Empty", "request");
+            msource.addArg("Observer<Empty>", "observer");
+            msource.body().append("handler.call(METHOD_" + i + ", request, Empty.getDefaultInstance(), observer);\n");
+        }
+    }
+
+    /**
+     * Generation end to end, from a parsed request to a serialized response.
+     */
+    @Benchmark
+    public void generate() throws IOException {
+        var out = CodedOutputStream.newInstance(OutputStream.nullOutputStream());
+        new ServiceGenerator(request).generate(out);
+        out.flush();
+    }
+
+    /**
+     * Indexing of the request, which includes scanning comments.
+     */
+    @Benchmark
+    public ProtoIndex index() {
+        return new ProtoIndex(request);
+    }
+
+    @Benchmark
+    public String sourceBuilderToString() {
+        return source.toString();
+    }
+}
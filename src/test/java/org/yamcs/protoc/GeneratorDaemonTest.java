@@ -0,0 +1,129 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+/**
+ * Runs the plugin in separate JVMs, as protoc does, with a daemon.
+ */
+public class GeneratorDaemonTest {
+
+    private static final long DAEMON_START_TIMEOUT = 20000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void resolvesCacheDirAgainstWorkingDirectory() throws Exception {
+        var stateDir = dir.resolve("state");
+        var first = Files.createDirectories(dir.resolve("first"));
+        var second = Files.createDirectories(dir.resolve("second"));
+        var env = Map.of(
+                GeneratorDaemon.DIR_VARIABLE, stateDir.toString(),
+                GeneratorDaemon.IDLE_TIMEOUT_VARIABLE, "10");
+        var request = GeneratorHarness.createRequest("cache_dir=cache", TestServiceProto.getDescriptor());
+        var expected = getFileNames(GeneratorHarness.generate(
+                GeneratorHarness.createRequest("", TestServiceProto.getDescriptor())));
+
+        // Generated in-process, starts a daemon for the first directory
+        assertEquals(expected, getFileNames(GeneratorHarness.runPlugin(request, first, env)));
+        awaitDaemons(stateDir, 1);
+
+        // Generated by the daemon
+        GeneratorHarness.delete(first.resolve("cache"));
+        assertEquals(expected, getFileNames(GeneratorHarness.runPlugin(request, first, env)));
+        assertTrue(Files.isDirectory(first.resolve("cache")));
+
+        // The daemon of the first directory is not used for the second
+        GeneratorHarness.delete(first.resolve("cache"));
+        assertEquals(expected, getFileNames(GeneratorHarness.runPlugin(request, second, env)));
+        assertTrue(Files.isDirectory(second.resolve("cache")));
+        assertFalse(Files.exists(first.resolve("cache")));
+        awaitDaemons(stateDir, 2);
+    }
+
+    @Test
+    public void fingerprintCoversClassPathContents() throws Exception {
+        var jar = Files.writeString(dir.resolve("plugin.jar"), "jar");
+        var classes = Files.createDirectories(dir.resolve("classes"));
+        var classFile = Files.writeString(classes.resolve("Plugin.class"), "class");
+        var classPath = jar + File.pathSeparator + classes;
+        var fingerprint = GeneratorDaemon.getFingerprint(classPath);
+        assertEquals(fingerprint, GeneratorDaemon.getFingerprint(classPath));
+
+        Files.writeString(jar, "rebuilt jar");
+        var rebuiltJar = GeneratorDaemon.getFingerprint(classPath);
+        assertNotEquals(fingerprint, rebuiltJar);
+
+        var lastModified = Files.getLastModifiedTime(classFile).toMillis();
+        Files.setLastModifiedTime(classFile, FileTime.fromMillis(lastModified + 2000));
+        assertNotEquals(rebuiltJar, GeneratorDaemon.getFingerprint(classPath));
+    }
+
+    @Test
+    public void exitsWhenClassPathChanges() throws Exception {
+        var stateDir = dir.resolve("state");
+        var classes = Files.createDirectories(dir.resolve("classes"));
+        var classFile = Files.writeString(classes.resolve("Plugin.class"), "class");
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        var processBuilder = new ProcessBuilder(java,
+                "-cp", GeneratorHarness.getClassPath() + File.pathSeparator + classes,
+                GeneratorDaemon.class.getName(), stateDir.toString(), "60");
+        processBuilder.directory(dir.toFile());
+        processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        var process = processBuilder.start();
+        try {
+            awaitDaemons(stateDir, 1);
+
+            var lastModified = Files.getLastModifiedTime(classFile).toMillis();
+            Files.setLastModifiedTime(classFile, FileTime.fromMillis(lastModified + 2000));
+            assertTrue(process.waitFor(DAEMON_START_TIMEOUT, TimeUnit.MILLISECONDS));
+            assertEquals(0, countPortFiles(stateDir));
+        } finally {
+            process.destroyForcibly();
+        }
+    }
+
+    private static String getFileNames(CodeGeneratorResponse response) {
+        var buf = new StringBuilder();
+        for (var file : response.getFileList()) {
+            buf.append(file.getName()).append("\n");
+        }
+        return buf.toString();
+    }
+
+    private static void awaitDaemons(Path stateDir, int count) throws IOException, InterruptedException {
+        var deadline = System.currentTimeMillis() + DAEMON_START_TIMEOUT;
+        while (countPortFiles(stateDir) < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Expected " + count + " running daemons");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static long countPortFiles(Path stateDir) throws IOException {
+        if (!Files.exists(stateDir)) {
+            return 0;
+        }
+        try (var paths = Files.walk(stateDir)) {
+            return paths.filter(path -> path.getFileName().toString().equals("daemon.port")).count();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.yamcs.protoc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileOptions;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import com.google.protobuf.DescriptorProtos.SourceCodeInfo;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.EmptyProto;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+/**
+ * Runs the generator in-process, without protoc, and compiles its output against the test class path.
+ * <p>
+ * Requests are built from compiled descriptors: either those of the protos in {@code src/test/proto}, or synthetic
+ * files of any size. Synthetic files have no protoc-generated outer class, so {@link #compile} adds one that
+ * resolves the descriptor through {@link #getSyntheticDescriptor(String)}.
+ */
+public class GeneratorHarness {
+
+    private static final Map<String, FileDescriptor> SYNTHETIC_FILES = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a request for the given files. Their transitive dependencies are included, but not generated.
+     */
+    public static CodeGeneratorRequest createRequest(String parameter, FileDescriptor... filesToGenerate) {
+        var request = CodeGeneratorRequest.newBuilder().setParameter(parameter);
+        var added = new HashSet<String>();
+        for (var file : filesToGenerate) {
+            addFile(request, file, added);
+            request.addFileToGenerate(file.getName());
+        }
+        return request.build();
+    }
+
+    // Like protoc, list dependencies before the files that import them
+    private static void addFile(CodeGeneratorRequest.Builder request, FileDescriptor file, Set<String> added) {
+        if (added.add(file.getName())) {
+            for (var dependency : file.getDependencies()) {
+                addFile(request, dependency, added);
+            }
+            request.addProtoFile(file.toProto());
+        }
+    }
+
+    /**
+     * Creates and registers a file with a single service of the given number of methods. Methods cycle through
+     * unary, server-streaming, client-streaming and bidirectional, and all use {@code google.protobuf.Empty}. Each
+     * method has a leading comment. The file also imports the given dependencies, without using them.
+     * <p>
+     * The name is used for the proto package, the Java package and the class names, so it must be a valid
+     * identifier. For example the name {@code huge} gives the service {@code HugeService} in
+     * {@code org.yamcs.protoc.synthetic.huge}.
+     */
+    public static FileDescriptor createSyntheticFile(String name, int methodCount, FileDescriptor... dependencies) {
+        var methodNames = new String[methodCount];
+        for (int i = 0; i < methodCount; i++) {
+            methodNames[i] = "Method" + i;
+        }
+        return createSyntheticFile(name, methodNames, dependencies);
+    }
+
+    /**
+     * Like {@link #createSyntheticFile(String, int, FileDescriptor...)}, but with the given method names.
+     */
+    public static FileDescriptor createSyntheticFile(String name, String... methodNames) {
+        return createSyntheticFile(name, methodNames, new FileDescriptor[0]);
+    }
+
+    private static FileDescriptor createSyntheticFile(String name, String[] methodNames,
+            FileDescriptor[] dependencies) {
+        var methodCount = methodNames.length;
+        var capitalizedName = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        var service = ServiceDescriptorProto.newBuilder().setName(capitalizedName + "Service");
+        var sourceCodeInfo = SourceCodeInfo.newBuilder();
+        sourceCodeInfo.addLocationBuilder()
+                .addPath(FileDescriptorProto.SERVICE_FIELD_NUMBER).addPath(0)
+                .setLeadingComments(" Synthetic service with " + methodCount + " methods.\n");
+        for (int i = 0; i < methodCount; i++) {
+            service.addMethod(MethodDescriptorProto.newBuilder()
+                    .setName(methodNames[i])
+                    .setInputType(".google.protobuf.Empty")
+                    .setOutputType(".google.protobuf.Empty")
+                    .setServerStreaming(i % 4 == 1 || i % 4 == 3)
+                    .setClientStreaming(i % 4 == 2 || i % 4 == 3));
+            sourceCodeInfo.addLocationBuilder()
+                    .addPath(FileDescriptorProto.SERVICE_FIELD_NUMBER).addPath(0)
+                    .addPath(ServiceDescriptorProto.METHOD_FIELD_NUMBER).addPath(i)
+                    .setLeadingComments(" Calls method " + i + ".\n");
+        }
+
+        var proto = FileDescriptorProto.newBuilder()
+                .setName("synthetic/" + name + ".proto")
+                .setPackage("synthetic." + name)
+                .setSyntax("proto3")
+                .addDependency("google/protobuf/empty.proto")
+                .setOptions(FileOptions.newBuilder()
+                        .setJavaPackage("org.yamcs.protoc.synthetic." + name)
+                        .setJavaOuterClassname(capitalizedName + "Proto"))
+                .addService(service)
+                .setSourceCodeInfo(sourceCodeInfo);
+        var dependencyFiles = new FileDescriptor[dependencies.length + 1];
+        dependencyFiles[0] = EmptyProto.getDescriptor();
+        for (int i = 0; i < dependencies.length; i++) {
+            proto.addDependency(dependencies[i].getName());
+            dependencyFiles[i + 1] = dependencies[i];
+        }
+        return addSyntheticFile(proto.build(), dependencyFiles);
+    }
+
+    /**
+     * Builds and registers a synthetic file from its descriptor, so that {@link #compile} adds an outer class for it.
+     */
+    public static FileDescriptor addSyntheticFile(FileDescriptorProto proto, FileDescriptor... dependencies) {
+        try {
+            var file = FileDescriptor.buildFrom(proto, dependencies);
+            SYNTHETIC_FILES.put(file.getName(), file);
+            return file;
+        } catch (DescriptorValidationException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns the descriptor of a synthetic file. Called by the outer classes that {@link #compile} adds.
+     */
+    public static FileDescriptor getSyntheticDescriptor(String name) {
+        return SYNTHETIC_FILES.get(name);
+    }
+
+    /**
+     * Returns the fully-qualified name of a generated class for a service, for example {@code Abstract} and
+     * {@code ""} for the abstract service, or {@code ""} and {@code Client} for the client.
+     */
+    public static String getClassName(FileDescriptor file, int serviceIndex, String prefix, String suffix) {
+        var serviceName = file.getServices().get(serviceIndex).getName();
+        return file.getOptions().getJavaPackage() + "." + prefix + serviceName + suffix;
+    }
+
+    public static CodeGeneratorResponse generate(CodeGeneratorRequest request) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = CodedOutputStream.newInstance(bytes);
+        new ServiceGenerator(request).generate(out);
+        out.flush();
+        return CodeGeneratorResponse.parseFrom(bytes.toByteArray());
+    }
+
+    /**
+     * Runs the plugin in a new JVM, as protoc does, with the given working directory and additional environment
+     * variables.
+     */
+    public static CodeGeneratorResponse runPlugin(CodeGeneratorRequest request, Path workingDir,
+            Map<String, String> env) throws IOException, InterruptedException {
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        var processBuilder = new ProcessBuilder(java, "-cp", getClassPath(), ServiceGenerator.class.getName());
+        processBuilder.directory(workingDir.toFile());
+        processBuilder.environment().putAll(env);
+        processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        var process = processBuilder.start();
+        try (var stdin = process.getOutputStream()) {
+            request.writeTo(stdin);
+        }
+        byte[] response;
+        try (var stdout = process.getInputStream()) {
+            response = stdout.readAllBytes();
+        }
+        var exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new AssertionError("Plugin exited with code " + exitCode);
+        }
+        return CodeGeneratorResponse.parseFrom(response);
+    }
+
+    /**
+     * Writes the Java files of a response to {@code dir/src}, and compiles them to {@code dir/classes}. Fails with
+     * the compiler diagnostics if the generated code does not compile.
+     *
+     * @return a class loader for the compiled classes
+     */
+    public static URLClassLoader compile(CodeGeneratorResponse response, Path dir) throws IOException {
+        var srcDir = dir.resolve("src");
+        var sources = new ArrayList<File>();
+        for (var file : response.getFileList()) {
+            if (file.getName().endsWith(".java")) {
+                sources.add(write(srcDir.resolve(file.getName()), file.getContent()));
+            }
+        }
+        for (var file : SYNTHETIC_FILES.values()) {
+            // Same defaults as protoc
+            var javaPackage = file.getOptions().hasJavaPackage()
+                    ? file.getOptions().getJavaPackage()
+                    : file.getPackage();
+            var outerClassname = file.getOptions().getJavaOuterClassname();
+            if (!file.getOptions().hasJavaOuterClassname()) {
+                var baseName = file.getName().substring(file.getName().lastIndexOf('/') + 1).replace(".proto", "");
+                outerClassname = Character.toUpperCase(baseName.charAt(0)) + baseName.substring(1);
+            }
+            var source = (javaPackage.isEmpty() ? "" : "package " + javaPackage + ";\n\n")
+                    + "public final class " + outerClassname + " {\n\n"
+                    + "    public static com.google.protobuf.Descriptors.FileDescriptor getDescriptor() {\n"
+                    + "        return " + GeneratorHarness.class.getName() + ".getSyntheticDescriptor(\""
+                    + file.getName() + "\");\n"
+                    + "    }\n"
+                    + "}\n";
+            var path = srcDir.resolve(javaPackage.replace('.', '/')).resolve(outerClassname + ".java");
+            sources.add(write(path, source));
+        }
+
+        var classesDir = Files.createDirectories(dir.resolve("classes"));
+        var compiler = ToolProvider.getSystemJavaCompiler();
+        var diagnostics = new DiagnosticCollector<JavaFileObject>();
+        try (var fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            var options = List.of("-classpath", getClassPath(), "-d", classesDir.toString(), "-proc:none", "-nowarn");
+            var units = fileManager.getJavaFileObjectsFromFiles(sources);
+            if (!compiler.getTask(null, fileManager, diagnostics, options, null, units).call()) {
+                var messages = diagnostics.getDiagnostics().stream()
+                        .map(Object::toString)
+                        .collect(Collectors.joining("\n"));
+                throw new AssertionError("Generated code does not compile:\n" + messages);
+            }
+        }
+        return new URLClassLoader(new URL[] { classesDir.toUri().toURL() }, GeneratorHarness.class.getClassLoader());
+    }
+
+    // Surefire may run tests from a manifest-only jar, which hides the actual class path
+    static String getClassPath() {
+        return System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+    }
+
+    private static File write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+        return path.toFile();
+    }
+
+    /**
+     * Deletes a directory and its contents.
+     */
+    public static void delete(Path dir) throws IOException {
+        if (Files.exists(dir)) {
+            try (var paths = Files.walk(dir)) {
+                for (var path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
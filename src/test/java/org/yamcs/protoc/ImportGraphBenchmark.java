@@ -0,0 +1,74 @@
+package org.yamcs.protoc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+
+/**
+ * Generation for the last file of a chain of imports, where every file has a service. With {@code generateAll}, all
+ * files of the chain are requested, which is what the generator used to produce for any request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImportGraphBenchmark {
+
+    @Param({ "10", "50" })
+    public int depth;
+
+    @Param({ "false", "true" })
+    public boolean generateAll;
+
+    private CodeGeneratorRequest request;
+
+    @Setup
+    public void setup() throws IOException {
+        var files = new FileDescriptor[depth];
+        for (int i = 0; i < depth; i++) {
+            var dependencies = (i == 0) ? new FileDescriptor[0] : new FileDescriptor[] { files[i - 1] };
+            files[i] = GeneratorHarness.createSyntheticFile("chain" + i, 20, dependencies);
+        }
+        var filesToGenerate = generateAll ? files : new FileDescriptor[] { files[depth - 1] };
+        request = GeneratorHarness.createRequest("", filesToGenerate);
+
+        // Make sure that the chain is generated as requested, and not measured on an empty or oversized output
+        var expectedDirs = new TreeSet<String>();
+        for (var file : filesToGenerate) {
+            expectedDirs.add(file.getOptions().getJavaPackage().replace('.', '/'));
+        }
+        var dirs = new TreeSet<String>();
+        for (var file : GeneratorHarness.generate(request).getFileList()) {
+            dirs.add(file.getName().substring(0, file.getName().lastIndexOf('/')));
+        }
+        if (!dirs.equals(expectedDirs)) {
+            throw new IllegalStateException("Expected output in " + expectedDirs + ", but got " + dirs);
+        }
+    }
+
+    @Benchmark
+    public void generate() throws IOException {
+        var out = CodedOutputStream.newInstance(OutputStream.nullOutputStream());
+        new ServiceGenerator(request).generate(out);
+        out.flush();
+    }
+}
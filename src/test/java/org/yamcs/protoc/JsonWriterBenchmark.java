@@ -0,0 +1,91 @@
+package org.yamcs.protoc;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yamcs.protoc.test.TestMessagesProto.Color;
+import org.yamcs.protoc.test.TestMessagesProto.Item;
+import org.yamcs.protoc.test.TestMessagesProto.ListItemsResponse;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+
+/**
+ * Generated JSON writers against {@code JsonFormat}, on a response with a list of items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonWriterBenchmark {
+
+    private Path dir;
+    private URLClassLoader loader;
+    private MethodHandle toJson;
+    private JsonFormat.Printer printer;
+    private ListItemsResponse message;
+
+    @Setup
+    public void setup() throws Exception {
+        var request = GeneratorHarness.createRequest("json_writers", TestServiceProto.getDescriptor());
+        dir = Files.createTempDirectory("json-benchmark");
+        loader = GeneratorHarness.compile(GeneratorHarness.generate(request), dir);
+        var jsonClassname = GeneratorHarness.getClassName(TestServiceProto.getDescriptor(), 0, "", "Json");
+        var jsonClass = loader.loadClass(jsonClassname);
+        toJson = MethodHandles.publicLookup().findStatic(jsonClass, "toJson",
+                MethodType.methodType(String.class, Message.class));
+        printer = JsonFormat.printer().omittingInsignificantWhitespace();
+
+        var response = ListItemsResponse.newBuilder().setContinuation("next");
+        for (int i = 0; i < 20; i++) {
+            response.addItems(Item.newBuilder()
+                    .setName("item" + i)
+                    .setCount(i)
+                    .addTags("a")
+                    .addTags("b")
+                    .putTotals("total", i * 1000L)
+                    .setColor(Color.GREEN)
+                    .setRatio(i / 3.0)
+                    .setNested(Item.Nested.newBuilder().setLabel("nested").setEnabled(true))
+                    .setText("text"));
+        }
+        message = response.build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        loader.close();
+        GeneratorHarness.delete(dir);
+    }
+
+    @Benchmark
+    public String generatedWriter() throws Throwable {
+        return (String) toJson.invokeExact((Message) message);
+    }
+
+    @Benchmark
+    public String jsonFormat() throws InvalidProtocolBufferException {
+        return printer.print(message);
+    }
+}
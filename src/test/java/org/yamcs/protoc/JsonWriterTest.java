@@ -0,0 +1,90 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.protoc.test.TestMessagesProto.Color;
+import org.yamcs.protoc.test.TestMessagesProto.Item;
+import org.yamcs.protoc.test.TestMessagesProto.ListItemsRequest;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+
+/**
+ * Generated JSON writers must give the same output as {@code JsonFormat}, for the messages in
+ * {@code src/test/proto}.
+ */
+public class JsonWriterTest {
+
+    @TempDir
+    static Path dir;
+
+    private static URLClassLoader loader;
+    private static Method toJson;
+
+    @BeforeAll
+    public static void generate() throws Exception {
+        var request = GeneratorHarness.createRequest("json_writers", TestServiceProto.getDescriptor());
+        loader = GeneratorHarness.compile(GeneratorHarness.generate(request), dir);
+        var jsonClassname = GeneratorHarness.getClassName(TestServiceProto.getDescriptor(), 0, "", "Json");
+        toJson = loader.loadClass(jsonClassname).getMethod("toJson", Message.class);
+    }
+
+    @AfterAll
+    public static void close() throws Exception {
+        loader.close();
+    }
+
+    @Test
+    public void unsetOptionalFields() throws Exception {
+        assertSameJson(ListItemsRequest.getDefaultInstance());
+    }
+
+    @Test
+    public void optionalFieldsWithDefaultValues() throws Exception {
+        assertSameJson(ListItemsRequest.newBuilder()
+                .setLabel("")
+                .setLimit(0)
+                .setFilter(Item.Nested.getDefaultInstance())
+                .build());
+    }
+
+    @Test
+    public void optionalFields() throws Exception {
+        assertSameJson(ListItemsRequest.newBuilder()
+                .setLabel("abc")
+                .setLimit(10)
+                .setFilter(Item.Nested.newBuilder().setLabel("def").setEnabled(true))
+                .setSafe(false)
+                .build());
+    }
+
+    @Test
+    public void nestedFields() throws Exception {
+        assertSameJson(Item.newBuilder()
+                .setName("abc")
+                .setCount(-3)
+                .addTags("x")
+                .addTags("y")
+                .putTotals("a", 1L << 40)
+                .setColor(Color.GREEN)
+                .setRatio(0.5)
+                .setNested(Item.Nested.newBuilder().setEnabled(true))
+                .addChildren(Item.Nested.newBuilder().setLabel("child"))
+                .setNumber(7)
+                .build());
+    }
+
+    private static void assertSameJson(Message message) throws Exception {
+        var expected = JsonFormat.printer().omittingInsignificantWhitespace().print(message);
+        assertEquals(expected, toJson.invoke(null, message));
+    }
+}
@@ -0,0 +1,38 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+
+/**
+ * Method names that map to the same constant name must still give unique constants.
+ */
+public class MethodConstantTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void collidingNamesAreMadeUnique() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("constants",
+                "Get_url_1", "GetURL", "GetUrl", "get_url", "ListItems");
+        var response = GeneratorHarness.generate(GeneratorHarness.createRequest("async_client,batching_client", file));
+        try (var loader = GeneratorHarness.compile(response, dir)) {
+            var serviceClass = loader.loadClass(GeneratorHarness.getClassName(file, 0, "Abstract", ""));
+            var methods = new ArrayList<MethodDescriptor>();
+            for (var name : new String[] { "METHOD_GET_URL_1", "METHOD_GET_URL_1_", "METHOD_GET_URL_2",
+                    "METHOD_GET_URL_3", "METHOD_LIST_ITEMS" }) {
+                var field = serviceClass.getDeclaredField(name);
+                field.setAccessible(true);
+                methods.add((MethodDescriptor) field.get(null));
+            }
+            assertEquals(file.getServices().get(0).getMethods(), methods);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.api.Api;
+import org.yamcs.api.Observer;
+
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Message;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+/**
+ * Services generated with {@code metrics} must record each call once, whether it completes, fails or throws.
+ */
+public class MetricsTest {
+
+    private static final int CONCURRENT_CALLS = 200;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void recordsCompletedCalls() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("metricscompleted", 1);
+        try (var loader = compile(file)) {
+            var service = newService(loader, file);
+            var metrics = new Metrics(loader, file);
+
+            service.callMethod(metrics.method, null, Empty.getDefaultInstance(), new NoopObserver());
+            assertEquals(1, metrics.get("getCallCount"));
+            assertEquals(1, metrics.get("getInFlightCount"));
+            assertEquals(0, metrics.getLatencyCount());
+
+            var pending = getPending(service);
+            pending.complete();
+            pending.complete(); // Recorded once
+            assertEquals(1, metrics.get("getCallCount"));
+            assertEquals(0, metrics.get("getInFlightCount"));
+            assertEquals(0, metrics.get("getErrorCount"));
+            assertEquals(1, metrics.getLatencyCount());
+        }
+    }
+
+    @Test
+    public void recordsFailedCalls() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("metricsfailed", 1);
+        try (var loader = compile(file)) {
+            var service = newService(loader, file);
+            var metrics = new Metrics(loader, file);
+
+            service.callMethod(metrics.method, null, Empty.getDefaultInstance(), new NoopObserver());
+            var pending = getPending(service);
+            pending.completeExceptionally(new IllegalStateException());
+            pending.complete();
+            assertEquals(1, metrics.get("getErrorCount"));
+            assertEquals(0, metrics.get("getInFlightCount"));
+            assertEquals(1, metrics.getLatencyCount());
+
+            // A call that throws is recorded as failed, even if it completes its observer as well
+            service.getClass().getField("fail").setBoolean(service, true);
+            assertThrows(IllegalStateException.class,
+                    () -> service.callMethod(metrics.method, null, Empty.getDefaultInstance(), new NoopObserver()));
+            getPending(service).complete();
+            assertEquals(2, metrics.get("getCallCount"));
+            assertEquals(2, metrics.get("getErrorCount"));
+            assertEquals(0, metrics.get("getInFlightCount"));
+            assertEquals(2, metrics.getLatencyCount());
+        }
+    }
+
+    @Test
+    public void recordsConcurrentCompletionsOnce() throws Exception {
+        var file = GeneratorHarness.createSyntheticFile("metricsconcurrent", 1);
+        try (var loader = compile(file)) {
+            var service = newService(loader, file);
+            var metrics = new Metrics(loader, file);
+
+            for (int i = 0; i < CONCURRENT_CALLS; i++) {
+                service.callMethod(metrics.method, null, Empty.getDefaultInstance(), new NoopObserver());
+                var pending = getPending(service);
+                var barrier = new CyclicBarrier(2);
+                var threads = new ArrayList<Thread>();
+                for (int j = 0; j < 2; j++) {
+                    var thread = new Thread(() -> {
+                        try {
+                            barrier.await();
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                        pending.complete();
+                    });
+                    thread.start();
+                    threads.add(thread);
+                }
+                for (var thread : threads) {
+                    thread.join();
+                }
+            }
+            assertEquals(CONCURRENT_CALLS, metrics.get("getCallCount"));
+            assertEquals(0, metrics.get("getInFlightCount"));
+            assertEquals(CONCURRENT_CALLS, metrics.getLatencyCount());
+        }
+    }
+
+    /**
+     * Compiles the service, with an implementation that keeps the observer of its only method. If {@code fail} is
+     * set, the method throws after keeping the observer.
+     */
+    private URLClassLoader compile(FileDescriptor file) throws Exception {
+        var service = file.getServices().get(0);
+        var javaPackage = file.getOptions().getJavaPackage();
+        var request = GeneratorHarness.createRequest("metrics", file);
+        var source = "package " + javaPackage + ";\n\n"
+                + "public class TestService extends Abstract" + service.getName() + "<Void> {\n\n"
+                + "    public boolean fail;\n"
+                + "    public org.yamcs.api.Observer<com.google.protobuf.Empty> pending;\n\n"
+                + "    @Override\n"
+                + "    public void method0(Void ctx, com.google.protobuf.Empty request,\n"
+                + "            org.yamcs.api.Observer<com.google.protobuf.Empty> observer) {\n"
+                + "        pending = observer;\n"
+                + "        if (fail) {\n"
+                + "            throw new IllegalStateException();\n"
+                + "        }\n"
+                + "    }\n"
+                + "}\n";
+        var response = GeneratorHarness.generate(request).toBuilder()
+                .addFile(CodeGeneratorResponse.File.newBuilder()
+                        .setName(javaPackage.replace('.', '/') + "/TestService.java")
+                        .setContent(source))
+                .build();
+        return GeneratorHarness.compile(response, dir);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Api<Void> newService(URLClassLoader loader, FileDescriptor file) throws Exception {
+        var className = file.getOptions().getJavaPackage() + ".TestService";
+        return (Api<Void>) loader.loadClass(className).getConstructor().newInstance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Observer<Message> getPending(Api<Void> service) throws Exception {
+        return (Observer<Message>) service.getClass().getField("pending").get(service);
+    }
+
+    /**
+     * Reads the generated metrics of the only method of a service.
+     */
+    private static class Metrics {
+
+        final Class<?> metricsClass;
+        final MethodDescriptor method;
+
+        Metrics(URLClassLoader loader, FileDescriptor file) throws Exception {
+            metricsClass = loader.loadClass(GeneratorHarness.getClassName(file, 0, "", "Metrics"));
+            method = file.getServices().get(0).getMethods().get(0);
+        }
+
+        long get(String getter) throws Exception {
+            return (long) metricsClass.getMethod(getter, MethodDescriptor.class).invoke(null, method);
+        }
+
+        long getLatencyCount() throws Exception {
+            var histogram = (long[]) metricsClass.getMethod("getLatencyHistogram", MethodDescriptor.class)
+                    .invoke(null, method);
+            return LongStream.of(histogram).sum();
+        }
+    }
+
+    private static class NoopObserver implements Observer<Message> {
+
+        @Override
+        public void next(Message message) {
+        }
+
+        @Override
+        public void completeExceptionally(Throwable t) {
+        }
+
+        @Override
+        public void complete() {
+        }
+    }
+}
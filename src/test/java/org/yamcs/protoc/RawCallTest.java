@@ -0,0 +1,165 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.api.Api;
+import org.yamcs.api.Observer;
+import org.yamcs.protoc.test.TestMessagesProto.Item;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+/**
+ * {@code callMethodRaw} must parse serialized requests with the typed parser of the method, and dispatch them as
+ * {@code callMethod} does.
+ */
+public class RawCallTest {
+
+    @TempDir
+    static Path dir;
+
+    private static URLClassLoader loader;
+    private static MethodDescriptor getItem;
+
+    @BeforeAll
+    public static void generate() throws Exception {
+        var request = GeneratorHarness.createRequest("", TestServiceProto.getDescriptor());
+        var javaPackage = TestServiceProto.getDescriptor().getOptions().getJavaPackage();
+        var source = "package " + javaPackage + ";\n\n"
+                + "import org.yamcs.api.Observer;\n"
+                + "import org.yamcs.protoc.test.TestMessagesProto.*;\n\n"
+                + "public class EchoService extends AbstractTestService<Void> {\n\n"
+                + "    public int calls;\n\n"
+                + "    @Override\n"
+                + "    public void listItems(Void ctx, ListItemsRequest request,\n"
+                + "            Observer<ListItemsResponse> observer) {\n"
+                + "    }\n\n"
+                + "    @Override\n"
+                + "    public void getItem(Void ctx, Item.Nested request, Observer<Item> observer) {\n"
+                + "        calls++;\n"
+                + "        observer.complete(Item.newBuilder().setName(request.getLabel()).build());\n"
+                + "    }\n\n"
+                + "    @Override\n"
+                + "    public void streamItems(Void ctx, ListItemsRequest request, Observer<Item> observer) {\n"
+                + "    }\n\n"
+                + "    @Override\n"
+                + "    public Observer<Item> uploadItems(Void ctx, Observer<ListItemsResponse> observer) {\n"
+                + "        return null;\n"
+                + "    }\n\n"
+                + "    @Override\n"
+                + "    public Observer<Item> syncItems(Void ctx, Observer<Item> observer) {\n"
+                + "        return null;\n"
+                + "    }\n"
+                + "}\n";
+        var response = GeneratorHarness.generate(request).toBuilder()
+                .addFile(CodeGeneratorResponse.File.newBuilder()
+                        .setName(javaPackage.replace('.', '/') + "/EchoService.java")
+                        .setContent(source))
+                .build();
+        loader = GeneratorHarness.compile(response, dir);
+        getItem = TestServiceProto.getDescriptor().getServices().get(0).findMethodByName("GetItem");
+    }
+
+    @AfterAll
+    public static void close() throws Exception {
+        loader.close();
+    }
+
+    @Test
+    public void parsesByteString() throws Exception {
+        var service = newService();
+        var observer = new RecordingObserver();
+        callMethodRaw(service, ByteString.class, nested("abc").toByteString(), observer);
+        assertEquals(List.of(Item.newBuilder().setName("abc").build()), observer.messages);
+        assertEquals(1, observer.completions);
+    }
+
+    @Test
+    public void parsesDirectByteBuffer() throws Exception {
+        var service = newService();
+        var bytes = nested("def").toByteArray();
+        var data = ByteBuffer.allocateDirect(bytes.length + 4);
+        data.position(2);
+        data.put(bytes);
+        data.flip();
+        data.position(2);
+
+        var observer = new RecordingObserver();
+        callMethodRaw(service, ByteBuffer.class, data, observer);
+        assertEquals(List.of(Item.newBuilder().setName("def").build()), observer.messages);
+        assertEquals(1, observer.completions);
+    }
+
+    @Test
+    public void throwsOnInvalidData() throws Exception {
+        var service = newService();
+        var data = ByteString.copyFrom(new byte[] { (byte) 0xFF });
+        var observer = new RecordingObserver();
+        var e = assertThrows(InvocationTargetException.class,
+                () -> callMethodRaw(service, ByteString.class, data, observer));
+        assertInstanceOf(InvalidProtocolBufferException.class, e.getCause());
+
+        // The handler is not called, and the observer is left to the caller
+        assertEquals(0, service.getClass().getField("calls").getInt(service));
+        assertEquals(List.of(), observer.messages);
+        assertNull(observer.error);
+        assertEquals(0, observer.completions);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Api<Void> newService() throws Exception {
+        var className = TestServiceProto.getDescriptor().getOptions().getJavaPackage() + ".EchoService";
+        return (Api<Void>) loader.loadClass(className).getConstructor().newInstance();
+    }
+
+    private static void callMethodRaw(Api<Void> service, Class<?> dataType, Object data, Observer<Message> observer)
+            throws Exception {
+        service.getClass()
+                .getMethod("callMethodRaw", MethodDescriptor.class, Object.class, dataType, Observer.class)
+                .invoke(service, getItem, null, data, observer);
+    }
+
+    private static Item.Nested nested(String label) {
+        return Item.Nested.newBuilder().setLabel(label).build();
+    }
+
+    private static class RecordingObserver implements Observer<Message> {
+
+        List<Message> messages = new ArrayList<>();
+        Throwable error;
+        int completions;
+
+        @Override
+        public void next(Message message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void completeExceptionally(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void complete() {
+            completions++;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.yamcs.protoc;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yamcs.api.Api;
+import org.yamcs.api.MethodHandler;
+
+import com.google.protobuf.Descriptors.FileDescriptor;
+
+/**
+ * Cold bootstrap of all generated clients, through the registry or by scanning the generated classes. Each
+ * invocation uses a new class loader, so that classes are loaded and initialized as on startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class RegistryBenchmark {
+
+    private static final String REGISTRY_CLASS = "org.yamcs.protoc.synthetic.Registry";
+
+    @Param({ "50" })
+    public int serviceCount;
+
+    private Path dir;
+    private URL classesUrl;
+    private URLClassLoader loader;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        var files = new ArrayList<FileDescriptor>();
+        for (int i = 0; i < serviceCount; i++) {
+            files.add(GeneratorHarness.createSyntheticFile("registry" + i, 10));
+        }
+        var request = GeneratorHarness.createRequest("registry=" + REGISTRY_CLASS,
+                files.toArray(new FileDescriptor[0]));
+        dir = Files.createTempDirectory("registry-benchmark");
+        GeneratorHarness.compile(GeneratorHarness.generate(request), dir).close();
+        classesUrl = dir.resolve("classes").toUri().toURL();
+    }
+
+    @Setup(Level.Invocation)
+    public void newLoader() {
+        loader = new URLClassLoader(new URL[] { classesUrl }, getClass().getClassLoader());
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeLoader() throws IOException {
+        loader.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        GeneratorHarness.delete(dir);
+    }
+
+    @Benchmark
+    public List<Object> registry() throws Exception {
+        var registryClass = loader.loadClass(REGISTRY_CLASS);
+        var clients = new ArrayList<Object>();
+        for (var entry : (List<?>) registryClass.getMethod("getEntries").invoke(null)) {
+            var newClient = entry.getClass().getMethod("newClient", MethodHandler.class);
+            var client = (Api<?>) newClient.invoke(entry, new DirectMethodHandler());
+            clients.add(client.getDescriptorForType());
+        }
+        return clients;
+    }
+
+    /**
+     * Loads every generated class, and instantiates those that are concrete clients.
+     */
+    @Benchmark
+    public List<Object> classScan() throws Exception {
+        var classesDir = dir.resolve("classes");
+        var clients = new ArrayList<Object>();
+        try (var paths = Files.walk(classesDir)) {
+            for (var path : (Iterable<Path>) paths.filter(p -> p.toString().endsWith(".class"))::iterator) {
+                var name = classesDir.relativize(path).toString().replace('/', '.').replace(".class", "");
+                var cls = loader.loadClass(name);
+                if (Api.class.isAssignableFrom(cls) && !Modifier.isAbstract(cls.getModifiers())) {
+                    var client = (Api<?>) cls.getConstructor(MethodHandler.class)
+                            .newInstance(new DirectMethodHandler());
+                    clients.add(client.getDescriptorForType());
+                }
+            }
+        }
+        return clients;
+    }
+}
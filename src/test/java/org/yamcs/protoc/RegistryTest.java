@@ -0,0 +1,116 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.api.MethodHandler;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import com.google.protobuf.EmptyProto;
+
+public class RegistryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void listsGeneratedServices() throws Exception {
+        var synthetic = GeneratorHarness.createSyntheticFile("registered", 3);
+        var testFile = TestServiceProto.getDescriptor();
+        var request = GeneratorHarness.createRequest("registry=org.yamcs.protoc.test.Registry", testFile, synthetic);
+        try (var loader = GeneratorHarness.compile(GeneratorHarness.generate(request), dir)) {
+            var registryClass = loader.loadClass("org.yamcs.protoc.test.Registry");
+            var entries = (List<?>) registryClass.getMethod("getEntries").invoke(null);
+            assertEquals(2, entries.size());
+            var getEntry = registryClass.getMethod("getEntry", String.class);
+            assertSame(entries.get(0), getEntry.invoke(null, "yamcs.protoc.test.TestService"));
+            assertSame(entries.get(1), getEntry.invoke(null, "synthetic.registered.RegisteredService"));
+            assertNull(getEntry.invoke(null, "TestService"));
+
+            var entry = entries.get(0);
+            var entryClass = entry.getClass();
+            assertSame(loader.loadClass(GeneratorHarness.getClassName(testFile, 0, "Abstract", "")),
+                    entryClass.getMethod("getServiceClass").invoke(entry));
+            var clientClass = loader.loadClass(GeneratorHarness.getClassName(testFile, 0, "", "Client"));
+            assertSame(clientClass, entryClass.getMethod("getClientClass").invoke(entry));
+            var client = entryClass.getMethod("newClient", MethodHandler.class).invoke(entry,
+                    new DirectMethodHandler());
+            assertSame(clientClass, client.getClass());
+            assertSame(testFile.getServices().get(0), entryClass.getMethod("getDescriptor").invoke(entry));
+
+            var methods = testFile.getServices().get(0).getMethods();
+            assertEquals(methods.size(), entryClass.getMethod("getMethodCount").invoke(entry));
+            var getMethodIndex = entryClass.getMethod("getMethodIndex", String.class);
+            var isClientStreaming = entryClass.getMethod("isClientStreaming", int.class);
+            var isServerStreaming = entryClass.getMethod("isServerStreaming", int.class);
+            for (var method : methods) {
+                assertEquals(method.getIndex(), getMethodIndex.invoke(entry, method.getName()));
+                assertEquals(method.isClientStreaming(), isClientStreaming.invoke(entry, method.getIndex()));
+                assertEquals(method.isServerStreaming(), isServerStreaming.invoke(entry, method.getIndex()));
+            }
+            assertEquals(-1, getMethodIndex.invoke(entry, "Unknown"));
+
+            entry = entries.get(1);
+            assertSame(synthetic.getServices().get(0), entryClass.getMethod("getDescriptor").invoke(entry));
+        }
+    }
+
+    @Test
+    public void fileWithoutJavaPackage() throws Exception {
+        var file = GeneratorHarness.addSyntheticFile(createPlainFile("plain"), EmptyProto.getDescriptor());
+        var request = GeneratorHarness.createRequest("registry=org.example.Registry", file);
+        try (var loader = GeneratorHarness.compile(GeneratorHarness.generate(request), dir)) {
+            // Like the outer class of protoc, generated classes fall back to the protobuf package
+            var registryClass = loader.loadClass("org.example.Registry");
+            var entry = registryClass.getMethod("getEntry", String.class).invoke(null, "plain.PlainService");
+            var entryClass = entry.getClass();
+            assertSame(loader.loadClass("plain.AbstractPlainService"),
+                    entryClass.getMethod("getServiceClass").invoke(entry));
+            assertSame(loader.loadClass("plain.PlainServiceClient"),
+                    entryClass.getMethod("newClient", MethodHandler.class)
+                            .invoke(entry, new DirectMethodHandler()).getClass());
+            assertSame(file.getServices().get(0), entryClass.getMethod("getDescriptor").invoke(entry));
+        }
+    }
+
+    @Test
+    public void fileWithoutPackage() throws Exception {
+        var proto = createPlainFile("").toBuilder().setName("unnamed.proto").build();
+        var file = GeneratorHarness.addSyntheticFile(proto, EmptyProto.getDescriptor());
+        var request = GeneratorHarness.createRequest("registry=org.example.Registry", file);
+        var e = assertThrows(IllegalArgumentException.class, () -> GeneratorHarness.generate(request));
+        assertTrue(e.getMessage().contains("unnamed.proto"), e.getMessage());
+
+        // Without registry, classes are generated in the unnamed package
+        var response = GeneratorHarness.generate(GeneratorHarness.createRequest("", file));
+        try (var loader = GeneratorHarness.compile(response, dir)) {
+            loader.loadClass("PlainServiceClient");
+        }
+    }
+
+    private static FileDescriptorProto createPlainFile(String packageName) {
+        return FileDescriptorProto.newBuilder()
+                .setName("plain.proto")
+                .setPackage(packageName)
+                .setSyntax("proto3")
+                .addDependency("google/protobuf/empty.proto")
+                .addService(ServiceDescriptorProto.newBuilder()
+                        .setName("PlainService")
+                        .addMethod(MethodDescriptorProto.newBuilder()
+                                .setName("Ping")
+                                .setInputType(".google.protobuf.Empty")
+                                .setOutputType(".google.protobuf.Empty")))
+                .build();
+    }
+}
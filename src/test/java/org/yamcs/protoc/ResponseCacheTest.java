@@ -0,0 +1,264 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yamcs.api.MethodHandler;
+import org.yamcs.api.Observer;
+import org.yamcs.protoc.test.TestMessagesProto.Item;
+import org.yamcs.protoc.test.TestServiceProto;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Clients generated with {@code client_cache} must cache responses of {@code GetItem}, which has no side effects.
+ */
+public class ResponseCacheTest {
+
+    @TempDir
+    static Path dir;
+
+    private static URLClassLoader loader;
+    private static Class<?> clientClass;
+    private static Method getItem;
+
+    @BeforeAll
+    public static void generate() throws Exception {
+        var request = GeneratorHarness.createRequest("client_cache", TestServiceProto.getDescriptor());
+        loader = GeneratorHarness.compile(GeneratorHarness.generate(request), dir);
+        var clientClassname = GeneratorHarness.getClassName(TestServiceProto.getDescriptor(), 0, "", "Client");
+        clientClass = loader.loadClass(clientClassname);
+        getItem = clientClass.getMethod("getItem", Void.class, Item.Nested.class, Observer.class);
+    }
+
+    @AfterAll
+    public static void close() throws Exception {
+        loader.close();
+    }
+
+    @Test
+    public void hitsAndMisses() throws Exception {
+        var handler = new TestHandler();
+        var client = newClient(handler, 60_000, 10);
+
+        var first = call(client, "a");
+        handler.completeAll();
+        var second = call(client, "a");
+        var third = call(client, "b");
+        handler.completeAll();
+
+        assertEquals(List.of("a", "b"), handler.labels);
+        assertEquals("a", first.response.getName());
+        assertEquals("a", second.response.getName());
+        assertEquals("b", third.response.getName());
+        assertEquals(1, getCount(client, "getCacheHitCount"));
+        assertEquals(2, getCount(client, "getCacheMissCount"));
+    }
+
+    @Test
+    public void expiresEntries() throws Exception {
+        var handler = new TestHandler();
+        var client = newClient(handler, 50, 10);
+
+        call(client, "a");
+        handler.completeAll();
+        Thread.sleep(100);
+        var observer = call(client, "a");
+        handler.completeAll();
+
+        assertEquals(List.of("a", "a"), handler.labels);
+        assertEquals("a", observer.response.getName());
+        assertEquals(0, getCount(client, "getCacheHitCount"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        var handler = new TestHandler();
+        var client = newClient(handler, 60_000, 2);
+
+        for (var label : List.of("a", "b", "a", "c", "a", "b")) {
+            call(client, label);
+            handler.completeAll();
+        }
+
+        // "b" was evicted by "c", because "a" was used more recently
+        assertEquals(List.of("a", "b", "c", "b"), handler.labels);
+        assertEquals(2, getCount(client, "getCacheHitCount"));
+    }
+
+    @Test
+    public void joinsCallsInFlight() throws Exception {
+        var handler = new TestHandler();
+        var client = newClient(handler, 60_000, 10);
+
+        var first = call(client, "a");
+        var second = call(client, "a");
+        assertNull(first.response);
+        handler.completeAll();
+
+        assertEquals(List.of("a"), handler.labels);
+        assertEquals("a", first.response.getName());
+        assertEquals("a", second.response.getName());
+        assertEquals(1, first.completions);
+        assertEquals(1, second.completions);
+        assertEquals(1, getCount(client, "getCacheHitCount"));
+    }
+
+    @Test
+    public void forgetsFailedCalls() throws Exception {
+        var handler = new TestHandler();
+        var client = newClient(handler, 60_000, 10);
+
+        var first = call(client, "a");
+        var second = call(client, "a");
+        var error = new IllegalStateException();
+        handler.pending.remove(0).completeExceptionally(error);
+        assertSame(error, first.error);
+        assertSame(error, second.error);
+
+        call(client, "a");
+        assertEquals(List.of("a", "a"), handler.labels);
+    }
+
+    @Test
+    public void forgetsCallsThatThrow() throws Exception {
+        var error = new IllegalStateException();
+        var joined = new TestObserver();
+        var handler = new TestHandler() {
+            @Override
+            public void call(MethodDescriptor method, Message request, Message responsePrototype,
+                    Observer<? extends Message> observer) {
+                super.call(method, request, responsePrototype, observer);
+                if (labels.size() == 1) {
+                    // An identical call joins before this one fails
+                    ResponseCacheTest.call(this.client, joined, "a");
+                    throw error;
+                }
+            }
+        };
+        var client = newClient(handler, 60_000, 10);
+        handler.client = client;
+
+        var observer = new TestObserver();
+        var e = assertThrows(InvocationTargetException.class, () -> getItem.invoke(client, null,
+                Item.Nested.newBuilder().setLabel("a").build(), observer));
+        assertSame(error, e.getCause());
+        assertEquals(0, observer.completions); // The caller gets the exception only
+        assertNull(observer.error);
+        assertSame(error, joined.error);
+
+        // Later calls are not answered by the failed entry
+        var later = call(client, "a");
+        handler.completeAll();
+        assertEquals(List.of("a", "a"), handler.labels);
+        assertEquals("a", later.response.getName());
+        assertEquals(2, getCount(client, "getCacheMissCount"));
+    }
+
+    @Test
+    public void disabledWithoutSize() throws Exception {
+        var handler = new TestHandler();
+        var client = newClient(handler, 60_000, 0);
+
+        call(client, "a");
+        handler.completeAll();
+        call(client, "a");
+        handler.completeAll();
+
+        assertEquals(List.of("a", "a"), handler.labels);
+        assertEquals(0, getCount(client, "getCacheMissCount"));
+    }
+
+    private static Object newClient(MethodHandler handler, long ttlMillis, int maxSize) throws Exception {
+        return clientClass.getConstructor(MethodHandler.class, long.class, int.class)
+                .newInstance(handler, ttlMillis, maxSize);
+    }
+
+    private static TestObserver call(Object client, String label) {
+        var observer = new TestObserver();
+        call(client, observer, label);
+        return observer;
+    }
+
+    private static void call(Object client, TestObserver observer, String label) {
+        try {
+            getItem.invoke(client, null, Item.Nested.newBuilder().setLabel(label).build(), observer);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static long getCount(Object client, String methodName) throws Exception {
+        return (long) clientClass.getMethod(methodName).invoke(client);
+    }
+
+    /**
+     * Keeps calls pending until completed, and then answers with an item named after the request label.
+     */
+    private static class TestHandler implements MethodHandler {
+
+        final List<String> labels = new ArrayList<>();
+        final List<Observer<Message>> pending = new ArrayList<>();
+        final List<String> pendingLabels = new ArrayList<>();
+        Object client;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void call(MethodDescriptor method, Message request, Message responsePrototype,
+                Observer<? extends Message> observer) {
+            var label = ((Item.Nested) request).getLabel();
+            labels.add(label);
+            pending.add((Observer<Message>) observer);
+            pendingLabels.add(label);
+        }
+
+        @Override
+        public Observer<? extends Message> streamingCall(MethodDescriptor method, Message requestPrototype,
+                Message responsePrototype, Observer<? extends Message> observer) {
+            throw new UnsupportedOperationException();
+        }
+
+        void completeAll() {
+            while (!pending.isEmpty()) {
+                var label = pendingLabels.remove(0);
+                pending.remove(0).complete(Item.newBuilder().setName(label).build());
+            }
+        }
+    }
+
+    private static class TestObserver implements Observer<Item> {
+
+        Item response;
+        Throwable error;
+        int completions;
+
+        @Override
+        public void next(Item message) {
+            response = message;
+        }
+
+        @Override
+        public void completeExceptionally(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void complete() {
+            completions++;
+        }
+    }
+}
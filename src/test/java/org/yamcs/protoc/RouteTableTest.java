@@ -0,0 +1,220 @@
+package org.yamcs.protoc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileOptions;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MethodOptions;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.EmptyProto;
+import com.google.protobuf.UnknownFieldSet;
+import com.google.protobuf.UnknownFieldSet.Field;
+
+/**
+ * Generated route tables must match paths as declared with {@code google.api.http} options. The options are built
+ * from unknown fields, as the generator reads them, so that the tests do not depend on the annotation protos.
+ */
+public class RouteTableTest {
+
+    // Field numbers of google.api.HttpRule
+    private static final int GET = 2;
+    private static final int POST = 4;
+    private static final int BODY = 7;
+    private static final int CUSTOM = 8;
+    private static final int ADDITIONAL_BINDINGS = 11;
+    private static final int RESPONSE_BODY = 12;
+
+    @TempDir
+    static Path dir;
+
+    private static URLClassLoader loader;
+    private static FileDescriptor file;
+    private static Object matcher;
+    private static Method match;
+    private static Method getParameter;
+
+    @BeforeAll
+    public static void generate() throws Exception {
+        var service = ServiceDescriptorProto.newBuilder().setName("RoutedService");
+        addMethod(service, "ListInstances", rule(GET, "/api/instances"));
+        addMethod(service, "GetInstance", rule(GET, "/api/instances/{instance}"));
+        addMethod(service, "GetDefaultInstance", rule(GET, "/api/instances/default"));
+        addMethod(service, "GetFile", rule(GET, "/api/files/{path=**}"));
+        addMethod(service, "PublishItem", rule(POST, "/api/items/{id}:publish")
+                .addField(BODY, string("*")));
+        addMethod(service, "GetItem", rule(GET, "/api/items/{id}")
+                .addField(RESPONSE_BODY, string("item"))
+                .addField(ADDITIONAL_BINDINGS, Field.newBuilder()
+                        .addLengthDelimited(rule(GET, "/api/v2/{parent=shelves/*}/items/{id}").build().toByteString())
+                        .build()));
+        var custom = UnknownFieldSet.newBuilder()
+                .addField(1, string("WATCH"))
+                .addField(2, string("/api/instances/{instance}"));
+        addMethod(service, "WatchInstance", UnknownFieldSet.newBuilder()
+                .addField(CUSTOM, Field.newBuilder().addLengthDelimited(custom.build().toByteString()).build()));
+        addMethod(service, "GetRoot", rule(GET, "/"));
+
+        var proto = FileDescriptorProto.newBuilder()
+                .setName("synthetic/routed.proto")
+                .setPackage("synthetic.routed")
+                .setSyntax("proto3")
+                .addDependency("google/protobuf/empty.proto")
+                .setOptions(FileOptions.newBuilder()
+                        .setJavaPackage("org.yamcs.protoc.synthetic.routed")
+                        .setJavaOuterClassname("RoutedProto"))
+                .addService(service)
+                .build();
+        file = GeneratorHarness.addSyntheticFile(proto, EmptyProto.getDescriptor());
+
+        var request = GeneratorHarness.createRequest("routes", file);
+        loader = GeneratorHarness.compile(GeneratorHarness.generate(request), dir);
+        var routesClassname = GeneratorHarness.getClassName(file, 0, "", "Routes");
+        var matcherClass = loader.loadClass(routesClassname + "$Matcher");
+        var constructor = matcherClass.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        matcher = constructor.newInstance();
+        match = matcherClass.getMethod("match", String.class, String.class);
+        getParameter = matcherClass.getMethod("getParameter", String.class);
+    }
+
+    @AfterAll
+    public static void close() throws Exception {
+        loader.close();
+    }
+
+    @Test
+    public void literalsTakePrecedenceOverVariables() throws Exception {
+        assertMatch("GET", "/api/instances", "ListInstances");
+        assertMatch("GET", "/api/instances/default", "GetDefaultInstance");
+        assertMatch("GET", "/api/instances/simulator", "GetInstance");
+        assertEquals("simulator", getParameter("instance"));
+        assertNull(match("GET", "/api/instances/a/b"));
+        assertNull(match("POST", "/api/instances/simulator"));
+    }
+
+    @Test
+    public void doubleWildcardMatchesAnyNumberOfSegments() throws Exception {
+        assertMatch("GET", "/api/files/a/b/c.txt", "GetFile");
+        assertEquals("a/b/c.txt", getParameter("path"));
+        assertMatch("GET", "/api/files/a", "GetFile");
+        assertEquals("a", getParameter("path"));
+        assertMatch("GET", "/api/files", "GetFile");
+        assertEquals("", getParameter("path"));
+    }
+
+    @Test
+    public void customVerbs() throws Exception {
+        assertMatch("POST", "/api/items/abc:publish", "PublishItem");
+        assertEquals("abc", getParameter("id"));
+
+        // The custom verb follows the last colon, earlier colons are part of the value
+        assertMatch("POST", "/api/items/a:b:publish", "PublishItem");
+        assertEquals("a:b", getParameter("id"));
+        assertMatch("GET", "/api/items/a:b", "GetItem");
+        assertEquals("a:b", getParameter("id"));
+
+        assertNull(match("POST", "/api/items/abc:unpublish"));
+        assertNull(match("POST", "/api/items/abc"));
+        assertMatch("WATCH", "/api/instances/simulator", "WatchInstance");
+        assertEquals("simulator", getParameter("instance"));
+    }
+
+    @Test
+    public void additionalBindings() throws Exception {
+        assertMatch("GET", "/api/items/abc", "GetItem");
+        assertEquals("abc", getParameter("id"));
+        assertNull(getParameter("parent"));
+
+        assertMatch("GET", "/api/v2/shelves/s1/items/abc", "GetItem");
+        assertEquals("shelves/s1", getParameter("parent"));
+        assertEquals("abc", getParameter("id"));
+        assertNull(match("GET", "/api/v2/books/s1/items/abc"));
+    }
+
+    @Test
+    public void trailingSlashIsSignificant() throws Exception {
+        assertNull(match("GET", "/api/instances/"));
+        assertNull(match("GET", "/api/instances/simulator/"));
+        assertNull(match("POST", "/api/items/abc/:publish"));
+
+        // Except that ** also matches an empty last segment
+        assertMatch("GET", "/api/files/a/", "GetFile");
+        assertEquals("a/", getParameter("path"));
+
+        assertMatch("GET", "/", "GetRoot");
+        assertNull(match("GET", ""));
+        assertNull(match("GET", "//"));
+    }
+
+    @Test
+    public void routeProperties() throws Exception {
+        var routesClass = loader.loadClass(GeneratorHarness.getClassName(file, 0, "", "Routes"));
+        var routes = (List<?>) routesClass.getMethod("getRoutes").invoke(null);
+        assertEquals(9, routes.size());
+
+        var route = match("POST", "/api/items/abc:publish");
+        assertEquals("*", invoke(route, "getBody"));
+        assertEquals("", invoke(route, "getResponseBody"));
+        assertEquals("/api/items/{id}:publish", invoke(route, "getPathTemplate"));
+
+        route = match("GET", "/api/v2/shelves/s1/items/abc");
+        assertEquals("", invoke(route, "getBody"));
+        assertEquals(List.of("parent", "id"), invoke(route, "getParameterNames"));
+        assertEquals("GET", invoke(route, "getVerb"));
+    }
+
+    private static void addMethod(ServiceDescriptorProto.Builder service, String name, UnknownFieldSet.Builder rule) {
+        var http = Field.newBuilder().addLengthDelimited(rule.build().toByteString()).build();
+        service.addMethod(MethodDescriptorProto.newBuilder()
+                .setName(name)
+                .setInputType(".google.protobuf.Empty")
+                .setOutputType(".google.protobuf.Empty")
+                .setOptions(MethodOptions.newBuilder()
+                        .setUnknownFields(UnknownFieldSet.newBuilder()
+                                .addField(RouteTableGenerator.HTTP_FIELD_NUMBER, http)
+                                .build())));
+    }
+
+    private static UnknownFieldSet.Builder rule(int verbFieldNumber, String path) {
+        return UnknownFieldSet.newBuilder().addField(verbFieldNumber, string(path));
+    }
+
+    private static Field string(String value) {
+        return Field.newBuilder().addLengthDelimited(ByteString.copyFromUtf8(value)).build();
+    }
+
+    private static Object match(String verb, String path) throws Exception {
+        return match.invoke(matcher, verb, path);
+    }
+
+    private static void assertMatch(String verb, String path, String methodName) throws Exception {
+        var route = match(verb, path);
+        assertEquals(methodName, route == null ? null : ((MethodDescriptor) invoke(route, "getMethod")).getName(),
+                verb + " " + path);
+    }
+
+    private static String getParameter(String name) throws Exception {
+        return (String) getParameter.invoke(matcher, name);
+    }
+
+    private static Object invoke(Object route, String methodName) throws Exception {
+        var method = route.getClass().getDeclaredMethod(methodName);
+        method.setAccessible(true);
+        return method.invoke(route);
+    }
+}